@@ -25,8 +25,10 @@
  */
 package robotinterface.algorithm;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import robotinterface.algorithm.procedure.Block;
 import robotinterface.robot.Robot;
+import robotinterface.interpreter.ExecutionContext;
 import robotinterface.interpreter.ExecutionException;
 import robotinterface.util.trafficsimulator.Clock;
 
@@ -40,10 +42,10 @@ public abstract class Command {
     private Command parent;
     private final String name;
     private final int id;
-    private static int classCounter = 0;
+    private static final AtomicInteger classCounter = new AtomicInteger();
     
     public Command() {
-        id = classCounter++;
+        id = classCounter.getAndIncrement();
         name = this.getClass().getSimpleName() + "[" + id + "]";
     }
 
@@ -80,12 +82,11 @@ public abstract class Command {
     }
 
     public final boolean addBefore(Command c) {
+        if (parent instanceof Block) {
+            return ((Block) parent).addBefore(this, c);
+        }
         if (prev != null) {
             prev.next = c;
-        } else {
-            if (parent != null && parent instanceof Block) {
-                ((Block) parent).addBegin(c);
-            }
         }
         c.prev = prev;
         c.next = this;
@@ -94,6 +95,9 @@ public abstract class Command {
     }
 
     public final boolean addAfter(Command c) {
+        if (parent instanceof Block) {
+            return ((Block) parent).addAfter(this, c);
+        }
         c.prev = this;
         c.next = next;
         if (next != null) {
@@ -102,10 +106,19 @@ public abstract class Command {
         next = c;
         return true;
     }
-    
-    public final void remove (){
-        next = prev;
-        prev = next;
+
+    public final void remove() {
+        if (parent instanceof Block) {
+            ((Block) parent).remove(this);
+            return;
+        }
+        if (prev != null) {
+            prev.next = next;
+        }
+        if (next != null) {
+            next.prev = prev;
+        }
+        prev = next = null;
     }
 
     //inicio da execução do comando
@@ -118,8 +131,25 @@ public abstract class Command {
         return true;
     }
 
+    /**
+     * Inicio da execução do comando por um interpretador. Comandos que usam
+     * variáveis obtem o parser do contexto; os demais só precisam de
+     * {@link #begin(Robot, Clock)}.
+     */
+    public void begin(ExecutionContext context) throws ExecutionException {
+        begin(context.getRobot(), context.getClock());
+    }
+
+    /**
+     * Repete até retornar true ou lançar uma ExecutionException (veja
+     * {@link #begin(ExecutionContext)}).
+     */
+    public boolean perform(ExecutionContext context) throws ExecutionException {
+        return perform(context.getRobot(), context.getClock());
+    }
+
     //executada ao final do comando a fim de saber qual é o proximo comando a ser executado
-    public Command step() throws ExecutionException {
+    public Command step(ExecutionContext context) throws ExecutionException {
         if (next == null) {
             Command i = getParent();
             Command j;
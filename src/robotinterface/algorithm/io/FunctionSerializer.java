@@ -0,0 +1,752 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.algorithm.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import robotinterface.algorithm.Command;
+import robotinterface.algorithm.procedure.Block;
+import robotinterface.algorithm.procedure.Declaration;
+import robotinterface.algorithm.procedure.Function;
+import robotinterface.algorithm.procedure.If;
+import robotinterface.algorithm.procedure.Procedure;
+import robotinterface.algorithm.procedure.While;
+import robotinterface.plugins.cmdpack.begginer.Move;
+import robotinterface.plugins.cmdpack.begginer.ReadDevice;
+import robotinterface.plugins.cmdpack.begginer.Wait;
+import robotinterface.plugins.cmdpack.serial.Start;
+import robotinterface.plugins.cmdpack.serial.Stop;
+import robotinterface.plugins.cmdpack.util.PrintString;
+import robotinterface.robot.device.Device;
+
+/**
+ * Salva e carrega funções em um formato binário compacto e exporta em JSON.
+ *
+ * Formato binário (big-endian):
+ * <pre>
+ * arquivo: MAGIC (int) VERSION (short) nó
+ * nó:      tipo (varint) campos...
+ * tipo:    índice na tabela de tipos; um índice novo (igual ao tamanho da
+ *          tabela) é seguido pelo nome do tipo (UTF) e o adiciona à tabela
+ * bloco:   numero de comandos (varint) nó...
+ * </pre>
+ *
+ * Cada tipo de comando é escrito por um {@link Codec} registrado com um nome
+ * estável (independente do nome da classe). Comandos de plugins devem
+ * registrar o seu com {@link #register(String, Class, Codec)}.
+ */
+public class FunctionSerializer {
+
+    public static final int MAGIC = 0x52494650; //"RIFP"
+    public static final short VERSION = 1;
+
+    /**
+     * Destino dos campos de um comando. Os nomes dos campos só são usados
+     * na exportação em JSON.
+     */
+    public interface Output {
+
+        public void writeInt(String field, int value) throws IOException;
+
+        public void writeLong(String field, long value) throws IOException;
+
+        public void writeString(String field, String value) throws IOException;
+
+        public void writeStrings(String field, List<String> values) throws IOException;
+
+        public void writeValues(String field, List<Object> values) throws IOException;
+
+        public void writeBlock(String field, Block block) throws IOException;
+    }
+
+    /**
+     * Origem dos campos de um comando, lidos na mesma ordem em que foram
+     * escritos.
+     */
+    public interface Input {
+
+        public int readInt() throws IOException;
+
+        public long readLong() throws IOException;
+
+        public String readString() throws IOException;
+
+        public List<String> readStrings() throws IOException;
+
+        public List<Object> readValues() throws IOException;
+
+        /**
+         * Lê os comandos de um bloco e os adiciona em <code>block</code>.
+         */
+        public void readBlock(Block block) throws IOException;
+    }
+
+    /**
+     * Converte um tipo de comando.
+     */
+    public interface Codec<T extends Command> {
+
+        public void write(T c, Output out) throws IOException;
+
+        public T read(Input in) throws IOException;
+    }
+
+    private static class Type<T extends Command> {
+
+        private final String name;
+        private final Class<T> type;
+        private final Codec<T> codec;
+
+        private Type(String name, Class<T> type, Codec<T> codec) {
+            this.name = name;
+            this.type = type;
+            this.codec = codec;
+        }
+
+        private void write(Command c, Output out) throws IOException {
+            codec.write(type.cast(c), out);
+        }
+
+        private T read(Input in) throws IOException {
+            return codec.read(in);
+        }
+    }
+    private static final HashMap<Class<? extends Command>, Type<?>> types = new HashMap<>();
+    private static final HashMap<String, Type<?>> names = new HashMap<>();
+
+    /**
+     * Registra a conversão de um tipo de comando.
+     *
+     * @param name nome estável do tipo no arquivo
+     */
+    public static synchronized <T extends Command> void register(String name, Class<T> c, Codec<T> codec) {
+        Type<T> t = new Type<>(name, c, codec);
+        types.put(c, t);
+        names.put(name, t);
+    }
+
+    private static synchronized Type<?> getType(Class<? extends Command> c) throws IOException {
+        Type<?> t = types.get(c);
+        if (t == null) {
+            throw new IOException("Tipo de comando não registrado: " + c.getName());
+        }
+        return t;
+    }
+
+    private static synchronized Type<?> getType(String name) throws IOException {
+        Type<?> t = names.get(name);
+        if (t == null) {
+            throw new IOException("Tipo de comando desconhecido: " + name);
+        }
+        return t;
+    }
+
+    public static void write(Function f, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        new BinaryOutput(data).writeNode(f);
+        data.flush();
+    }
+
+    public static Function read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Arquivo inválido");
+        }
+        short version = data.readShort();
+        if (version > VERSION) {
+            throw new IOException("Versão não suportada: " + version);
+        }
+        Command c = new BinaryInput(data).readNode();
+        if (!(c instanceof Function)) {
+            throw new IOException("Arquivo não contém uma função");
+        }
+        return (Function) c;
+    }
+
+    public static void save(Function f, File file) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            write(f, out);
+        }
+    }
+
+    public static Function load(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Cria uma cópia independente de uma função.
+     */
+    public static Function copy(Function f) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(f, out);
+        return read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    /**
+     * Exporta a função em JSON (somente leitura humana).
+     */
+    public static void writeJSON(Function f, Appendable out) throws IOException {
+        out.append("{\n  \"format\": \"RobotInterface\",\n  \"version\": ").append(Short.toString(VERSION));
+        out.append(",\n  \"function\": ");
+        new JSONOutput(out, 1).writeNode(f);
+        out.append("\n}\n");
+    }
+
+    private static class BinaryOutput implements Output {
+
+        private final DataOutputStream out;
+        private final HashMap<String, Integer> table = new HashMap<>();
+
+        private BinaryOutput(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        private void writeNode(Command c) throws IOException {
+            Type<?> t = getType(c.getClass());
+            Integer index = table.get(t.name);
+            if (index == null) {
+                writeVarInt(table.size());
+                out.writeUTF(t.name);
+                table.put(t.name, table.size());
+            } else {
+                writeVarInt(index);
+            }
+            t.write(c, this);
+        }
+
+        @Override
+        public void writeInt(String field, int value) throws IOException {
+            out.writeInt(value);
+        }
+
+        @Override
+        public void writeLong(String field, long value) throws IOException {
+            out.writeLong(value);
+        }
+
+        @Override
+        public void writeString(String field, String value) throws IOException {
+            out.writeUTF(value);
+        }
+
+        @Override
+        public void writeStrings(String field, List<String> values) throws IOException {
+            writeVarInt(values.size());
+            for (String s : values) {
+                out.writeUTF(s);
+            }
+        }
+
+        @Override
+        public void writeValues(String field, List<Object> values) throws IOException {
+            writeVarInt(values.size());
+            for (Object v : values) {
+                if (v == null) {
+                    out.writeByte(0);
+                } else if (v instanceof Double || v instanceof Float) {
+                    out.writeByte(1);
+                    out.writeDouble(((Number) v).doubleValue());
+                } else if (v instanceof Integer || v instanceof Short || v instanceof Byte) {
+                    out.writeByte(2);
+                    out.writeInt(((Number) v).intValue());
+                } else if (v instanceof Long) {
+                    out.writeByte(3);
+                    out.writeLong((Long) v);
+                } else if (v instanceof String) {
+                    out.writeByte(4);
+                    out.writeUTF((String) v);
+                } else if (v instanceof Boolean) {
+                    out.writeByte(5);
+                    out.writeBoolean((Boolean) v);
+                } else {
+                    throw new IOException("Tipo de valor não suportado: " + v.getClass().getName());
+                }
+            }
+        }
+
+        @Override
+        public void writeBlock(String field, Block block) throws IOException {
+            int size = block.size() - 1; //sem o final do bloco
+            writeVarInt(size);
+            for (int i = 0; i < size; i++) {
+                writeNode(block.get(i));
+            }
+        }
+    }
+
+    private static class BinaryInput implements Input {
+
+        private final DataInputStream in;
+        private final ArrayList<Type<?>> table = new ArrayList<>();
+
+        private BinaryInput(DataInputStream in) {
+            this.in = in;
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("varint inválido");
+        }
+
+        //número de itens de uma lista; as listas crescem conforme os itens
+        //são lidos, então um arquivo corrompido não reserva memória demais
+        private int readCount() throws IOException {
+            int n = readVarInt();
+            if (n < 0) {
+                throw new IOException("Tamanho inválido: " + n);
+            }
+            return n;
+        }
+
+        private Command readNode() throws IOException {
+            int index = readVarInt();
+            Type<?> t;
+            if (index == table.size()) {
+                t = getType(in.readUTF());
+                table.add(t);
+            } else if (index < table.size()) {
+                t = table.get(index);
+            } else {
+                throw new IOException("Índice de tipo inválido: " + index);
+            }
+            return t.read(this);
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            return in.readInt();
+        }
+
+        @Override
+        public long readLong() throws IOException {
+            return in.readLong();
+        }
+
+        @Override
+        public String readString() throws IOException {
+            return in.readUTF();
+        }
+
+        @Override
+        public List<String> readStrings() throws IOException {
+            int n = readCount();
+            ArrayList<String> values = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                values.add(in.readUTF());
+            }
+            return values;
+        }
+
+        @Override
+        public List<Object> readValues() throws IOException {
+            int n = readCount();
+            ArrayList<Object> values = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                    case 0:
+                        values.add(null);
+                        break;
+                    case 1:
+                        values.add(in.readDouble());
+                        break;
+                    case 2:
+                        values.add(in.readInt());
+                        break;
+                    case 3:
+                        values.add(in.readLong());
+                        break;
+                    case 4:
+                        values.add(in.readUTF());
+                        break;
+                    case 5:
+                        values.add(in.readBoolean());
+                        break;
+                    default:
+                        throw new IOException("Tipo de valor inválido: " + tag);
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public void readBlock(Block block) throws IOException {
+            int n = readCount();
+            for (int i = 0; i < n; i++) {
+                block.add(readNode());
+            }
+        }
+    }
+
+    private static class JSONOutput implements Output {
+
+        private final Appendable out;
+        private int indent;
+        private boolean first;
+
+        private JSONOutput(Appendable out, int indent) {
+            this.out = out;
+            this.indent = indent;
+        }
+
+        private void newLine() throws IOException {
+            out.append('\n');
+            for (int i = 0; i < indent; i++) {
+                out.append("  ");
+            }
+        }
+
+        private void field(String field) throws IOException {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            newLine();
+            quote(field);
+            out.append(": ");
+        }
+
+        private void quote(String str) throws IOException {
+            out.append('"');
+            for (int i = 0; i < str.length(); i++) {
+                char c = str.charAt(i);
+                switch (c) {
+                    case '"':
+                        out.append("\\\"");
+                        break;
+                    case '\\':
+                        out.append("\\\\");
+                        break;
+                    case '\n':
+                        out.append("\\n");
+                        break;
+                    case '\t':
+                        out.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            out.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            out.append(c);
+                        }
+                }
+            }
+            out.append('"');
+        }
+
+        private void writeNode(Command c) throws IOException {
+            Type<?> t = getType(c.getClass());
+            out.append('{');
+            indent++;
+            first = true;
+            field("type");
+            quote(t.name);
+            t.write(c, this);
+            indent--;
+            newLine();
+            out.append('}');
+        }
+
+        @Override
+        public void writeInt(String field, int value) throws IOException {
+            field(field);
+            out.append(Integer.toString(value));
+        }
+
+        @Override
+        public void writeLong(String field, long value) throws IOException {
+            field(field);
+            out.append(Long.toString(value));
+        }
+
+        @Override
+        public void writeString(String field, String value) throws IOException {
+            field(field);
+            quote(value);
+        }
+
+        @Override
+        public void writeStrings(String field, List<String> values) throws IOException {
+            field(field);
+            out.append('[');
+            for (int i = 0; i < values.size(); i++) {
+                out.append((i > 0) ? ", " : "");
+                quote(values.get(i));
+            }
+            out.append(']');
+        }
+
+        @Override
+        public void writeValues(String field, List<Object> values) throws IOException {
+            field(field);
+            out.append('[');
+            for (int i = 0; i < values.size(); i++) {
+                out.append((i > 0) ? ", " : "");
+                Object v = values.get(i);
+                if (v instanceof String) {
+                    quote((String) v);
+                } else if ((v instanceof Double || v instanceof Float)
+                        && (Double.isNaN(((Number) v).doubleValue()) || Double.isInfinite(((Number) v).doubleValue()))) {
+                    //NaN e Infinity não são números válidos em JSON
+                    quote(String.valueOf(v));
+                } else {
+                    out.append(String.valueOf(v));
+                }
+            }
+            out.append(']');
+        }
+
+        @Override
+        public void writeBlock(String field, Block block) throws IOException {
+            field(field);
+            out.append('[');
+            int size = block.size() - 1; //sem o final do bloco
+            indent++;
+            for (int i = 0; i < size; i++) {
+                out.append((i > 0) ? "," : "");
+                newLine();
+                writeNode(block.get(i));
+            }
+            indent--;
+            if (size > 0) {
+                newLine();
+            }
+            out.append(']');
+            first = false;
+        }
+    }
+
+    //conversões dos comandos padrão
+    static {
+        register("Function", Function.class, new Codec<Function>() {
+            @Override
+            public void write(Function c, Output out) throws IOException {
+                out.writeString("name", (c.getName() != null) ? c.getName() : "");
+                out.writeBlock("body", c);
+            }
+
+            @Override
+            public Function read(Input in) throws IOException {
+                Function f = new Function(in.readString(), null);
+                in.readBlock(f);
+                return f;
+            }
+        });
+        register("Block", Block.class, new Codec<Block>() {
+            @Override
+            public void write(Block c, Output out) throws IOException {
+                out.writeBlock("body", c);
+            }
+
+            @Override
+            public Block read(Input in) throws IOException {
+                Block b = new Block();
+                in.readBlock(b);
+                return b;
+            }
+        });
+        register("Procedure", Procedure.class, new Codec<Procedure>() {
+            @Override
+            public void write(Procedure c, Output out) throws IOException {
+                out.writeString("procedure", c.getProcedure());
+            }
+
+            @Override
+            public Procedure read(Input in) throws IOException {
+                return new Procedure(in.readString());
+            }
+        });
+        register("Declaration", Declaration.class, new Codec<Declaration>() {
+            @Override
+            public void write(Declaration c, Output out) throws IOException {
+                out.writeStrings("names", c.getVariableNames());
+                out.writeValues("values", c.getVariableValues());
+            }
+
+            @Override
+            public Declaration read(Input in) throws IOException {
+                List<String> vars = in.readStrings();
+                List<Object> values = in.readValues();
+                if (vars.size() != values.size()) {
+                    throw new IOException("Declaração inválida");
+                }
+                Declaration d = new Declaration();
+                for (int i = 0; i < vars.size(); i++) {
+                    d.addVariable(vars.get(i), values.get(i));
+                }
+                return d;
+            }
+        });
+        register("If", If.class, new Codec<If>() {
+            @Override
+            public void write(If c, Output out) throws IOException {
+                out.writeString("procedure", c.getProcedure());
+                out.writeBlock("true", c.getBlockTrue());
+                out.writeBlock("false", c.getBlockFalse());
+            }
+
+            @Override
+            public If read(Input in) throws IOException {
+                If i = new If(in.readString());
+                in.readBlock(i.getBlockTrue());
+                in.readBlock(i.getBlockFalse());
+                return i;
+            }
+        });
+        register("While", While.class, new Codec<While>() {
+            @Override
+            public void write(While c, Output out) throws IOException {
+                out.writeString("procedure", c.getProcedure());
+                out.writeBlock("body", c);
+            }
+
+            @Override
+            public While read(Input in) throws IOException {
+                While w = new While(in.readString());
+                in.readBlock(w);
+                return w;
+            }
+        });
+        register("Move", Move.class, new Codec<Move>() {
+            @Override
+            public void write(Move c, Output out) throws IOException {
+                out.writeInt("m1", c.getM1());
+                out.writeInt("m2", c.getM2());
+            }
+
+            @Override
+            public Move read(Input in) throws IOException {
+                int m1 = in.readInt();
+                return new Move(m1, in.readInt());
+            }
+        });
+        register("Wait", Wait.class, new Codec<Wait>() {
+            @Override
+            public void write(Wait c, Output out) throws IOException {
+                out.writeLong("ms", c.getMilis());
+            }
+
+            @Override
+            public Wait read(Input in) throws IOException {
+                return new Wait(in.readLong());
+            }
+        });
+        register("ReadDevice", ReadDevice.class, new Codec<ReadDevice>() {
+            @Override
+            public void write(ReadDevice c, Output out) throws IOException {
+                //comandos ainda não configurados no editor: "" marca null
+                Class<? extends Device> type = c.getDeviceType();
+                out.writeString("device", (type != null) ? type.getName() : "");
+                out.writeString("variable", (c.getVariable() != null) ? c.getVariable() : "");
+            }
+
+            @Override
+            public ReadDevice read(Input in) throws IOException {
+                String type = in.readString();
+                String var = in.readString();
+                if (var.isEmpty()) {
+                    var = null;
+                }
+                if (type.isEmpty()) {
+                    return new ReadDevice(null, var);
+                }
+                try {
+                    Class<?> c = Class.forName(type, false, FunctionSerializer.class.getClassLoader());
+                    return new ReadDevice(c.asSubclass(Device.class), var);
+                } catch (ClassNotFoundException | ClassCastException e) {
+                    throw new IOException("Dispositivo inválido: " + type);
+                }
+            }
+        });
+        register("PrintString", PrintString.class, new Codec<PrintString>() {
+            @Override
+            public void write(PrintString c, Output out) throws IOException {
+                out.writeString("text", c.getText());
+                out.writeStrings("variables", java.util.Arrays.asList(c.getVariableNames()));
+            }
+
+            @Override
+            public PrintString read(Input in) throws IOException {
+                String text = in.readString();
+                List<String> vars = in.readStrings();
+                return new PrintString(text, vars.toArray(new String[vars.size()]));
+            }
+        });
+        register("Start", Start.class, new Codec<Start>() {
+            @Override
+            public void write(Start c, Output out) {
+            }
+
+            @Override
+            public Start read(Input in) {
+                return new Start();
+            }
+        });
+        register("Stop", Stop.class, new Codec<Stop>() {
+            @Override
+            public void write(Stop c, Output out) {
+            }
+
+            @Override
+            public Stop read(Input in) {
+                return new Stop();
+            }
+        });
+    }
+}
@@ -25,9 +25,12 @@
  */
 package robotinterface.algorithm.procedure;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import robotinterface.algorithm.Command;
-import org.nfunk.jep.SymbolTable;
-import org.nfunk.jep.Variable;
+import robotinterface.interpreter.ExecutionContext;
 import robotinterface.interpreter.ExecutionException;
 
 /**
@@ -55,24 +58,39 @@ public class Block extends Procedure {
         }
 
         /**
-         * Reseta o escopo de variável e retorna o bloco de comandos que
-         * pertence.
+         * Retorna o bloco de comandos que pertence (o escopo de variável é
+         * desfeito pelo interpretador, veja
+         * {@link robotinterface.interpreter.Linker}).
          */
         @Override
-        public Command step() {
+        public Command step(ExecutionContext context) {
             returnNext = true;
-            resetVariableScope();
             return begin;
         }
     }
     protected Command start;
     protected boolean returnNext = false;
     private BlockEnd end;
+    //comandos do bloco em ordem, sempre terminando em end
+    private final ArrayList<Command> commands;
+    //posição de cada comando, válida até dirtyFrom
+    private final IdentityHashMap<Command, Integer> positions;
+    private int dirtyFrom = 0;
+    //variáveis visíveis antes de cada comando (compartilhadas entre irmãos),
+    //recalculadas quando o bloco muda ou quando o escopo externo usado no
+    //cálculo (outerScope) é substituído pelo bloco externo
+    private final ArrayList<List<String>> scope = new ArrayList<>();
+    private List<String> outerScope = null;
+    private volatile boolean scopeChanged = true;
 
     public Block() {
         end = new BlockEnd();
         end.setBlockBegin(this);
+        end.setParent(this);
         start = end;
+        commands = new ArrayList<>();
+        positions = new IdentityHashMap<>();
+        commands.add(end);
     }
 
     @Deprecated
@@ -90,22 +108,33 @@ public class Block extends Procedure {
         if (c == null) {
             return false;
         }
+        insert(commands.size() - 1, c);
+        return true;
+    }
+
+    //insere c na posição index e mantem a lista ligada de comandos
+    private void insert(int index, Command c) {
         c.setParent(this);
-        //pega o elemento antes do ultimo
-        Command it = end.getPrevious();
-        //define a relação entre o novo elemento e o final ...<-c<->end
-        c.setNext(end);
-        end.setPrevious(c);
-        end.setNext(null);
-        //adiciona end ao final da lista
-        if (it != null) {
-            //...<-it<->c<->end->null
-            it.setNext(c);
-            c.setPrevious(it);
+        Command next = commands.get(index);
+        Command prev = next.getPrevious();
+        c.setPrevious(prev);
+        c.setNext(next);
+        next.setPrevious(c);
+        if (prev != null) {
+            prev.setNext(c);
         } else {
             start = c;
         }
-        return true;
+        commands.add(index, c);
+        scopeChanged();
+        if (index == commands.size() - 2 && dirtyFrom >= index) {
+            //inserção no final: só o final muda de posição
+            positions.put(c, index);
+            positions.put(end, index + 1);
+            dirtyFrom = commands.size();
+        } else if (index < dirtyFrom) {
+            dirtyFrom = index;
+        }
     }
 
     /**
@@ -114,83 +143,64 @@ public class Block extends Procedure {
      * @return O numero de comandos dentro desse bloco
      */
     public final int size() {
-        int size = 0;
-        Command it = start;
-        while (it != null) {
-            size++;
-            it = it.getNext();
-        }
-        return size;
+        return commands.size();
     }
 
     //não protege o final!
     public final int indexOf(Command c) {
-        int index = 0;
-        Command it = start;
-        while (it != null) {
-            if (it == c) {
-                return index;
+        if (c == null || c.getParent() != this) {
+            return -1;
+        }
+        if (dirtyFrom < commands.size()) {
+            for (int i = dirtyFrom; i < commands.size(); i++) {
+                positions.put(commands.get(i), i);
             }
-            it = it.getNext();
-            index++;
+            dirtyFrom = commands.size();
         }
-        return -1;
+        Integer i = positions.get(c);
+        return (i != null) ? i : -1;
     }
 
     //não protege o final!
     public final Command get(int index) {
-        int i = 0;
-        Command it = start;
-        while (it != null) {
-            if (i == index) {
-                return it;
-            }
-            it = it.getNext();
-            i++;
+        if (index < 0 || index >= commands.size()) {
+            return null;
         }
-        return null;
+        return commands.get(index);
     }
 
     //protege o final
     public final boolean remove(int index) {
-        int i = 0;
-        Command it = start;
-        while (it != null) {
-            if (i == index) {
-                if (it == end) {
-                    return false; //protege o final
-                }
-                Command prev = it.getPrevious();
-                Command next = it.getNext();
-                if (prev != null) {
-                    prev.setNext(it.getNext());
-                } else {
-                    start = it;
-                }
-
-                if (next != null) {
-                    next.setPrevious(it.getPrevious());
-                }
-                return true;
-            }
-            it = it.getNext();
-            i++;
+        if (index < 0 || index >= commands.size() - 1) {
+            return false; //protege o final
         }
-        return false;
+        Command it = commands.remove(index);
+        Command prev = it.getPrevious();
+        Command next = it.getNext();
+        if (prev != null) {
+            prev.setNext(next);
+        } else {
+            start = next;
+        }
+        next.setPrevious(prev);
+        it.setPrevious(null);
+        it.setNext(null);
+        it.setParent(null);
+        positions.remove(it);
+        scopeChanged();
+        if (index < dirtyFrom) {
+            dirtyFrom = index;
+        }
+        return true;
     }
 
     //protege o final
     public final boolean remove(Command c) {
-        int i = indexOf(c);
-        if (i >= 0) {
-            remove(i);
-            return true;
-        }
-        return false;
+        return remove(indexOf(c));
     }
 
     public final boolean contains(Command c) {
-        return (indexOf(c) >= 0);
+        return (c != null && c.getParent() == this);
     }
 
     public final boolean addBegin(Command c) {
@@ -198,57 +208,65 @@ public class Block extends Procedure {
     }
 
     public final boolean addBefore(Command x, Command c) {
-        if (contains(x)) {
-            Command prev = x.getPrevious();
-            if (prev != null) {
-                addAfter(prev, c);
-            } else {
-                x.setPrevious(c);
-                c.setNext(x);
-                start = c;
-            }
+        if (c != null && contains(x)) {
+            insert(indexOf(x), c);
+            return true;
         }
         return false;
     }
 
     public final boolean addAfter(Command x, Command c) {
-        if (contains(x) && c != null) {
-            c.setPrevious(x);
-            c.setNext(x.getNext());
-            x.getNext().setPrevious(c);
-            x.setNext(c);
+        if (c != null && x != end && contains(x)) {
+            insert(indexOf(x) + 1, c);
+            return true;
         }
         return false;
     }
 
-    //função executada ao final do bloco
-    protected void reset() {
+    //invalida o escopo de variáveis calculado deste bloco (os blocos
+    //internos percebem a nova lista do escopo externo)
+    final void scopeChanged() {
+        scopeChanged = true;
     }
 
-    //remove todas as variaveis definidas dentro do bloco
-    private void resetVariableScope() {
-        SymbolTable st = getParser().getSymbolTable();
-        Command it = start;
-        while (it != null) {
-            if (it instanceof Declaration) {
-                for (String varName : ((Declaration) it).getVariableNames()) {
-                    Variable remove = st.getVar(varName);
-                    if (remove != null) {
-                        System.out.println("Removed var: " + remove.getName());
-                        remove.setValidValue(false);
-                    }
+    /**
+     * Obtem as variáveis declaradas antes de um comando deste bloco,
+     * incluindo as dos blocos externos. A lista é compartilhada e não pode
+     * ser modificada.
+     */
+    final synchronized List<String> getVisibleVariables(Command c) {
+        int i = indexOf(c);
+        if (i < 0) {
+            return Collections.emptyList();
+        }
+        List<String> outer = getDeclaredVariables();
+        if (scopeChanged || outer != outerScope) {
+            scopeChanged = false;
+            outerScope = outer;
+            scope.clear();
+            List<String> current = outer;
+            for (Command it : commands) {
+                scope.add(current);
+                if (it instanceof Declaration) {
+                    ArrayList<String> vars = new ArrayList<>(current);
+                    vars.addAll(((Declaration) it).getVariableNames());
+                    current = Collections.unmodifiableList(vars);
                 }
             }
-            it = it.getNext();
         }
+        return scope.get(i);
+    }
+
+    //função executada ao final do bloco
+    protected void reset() {
     }
 
     @Override
-    public Command step() throws ExecutionException {
+    public Command step(ExecutionContext context) throws ExecutionException {
         if (returnNext) {
             returnNext = false;
             reset();
-            return super.step();
+            return super.step(context);
         } else {
             return start;
         }
@@ -26,10 +26,12 @@
 package robotinterface.algorithm.procedure;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.nfunk.jep.SymbolTable;
-import robotinterface.robot.Robot;
+import robotinterface.algorithm.Command;
+import robotinterface.interpreter.ExecutionContext;
 import robotinterface.interpreter.ExecutionException;
-import robotinterface.util.trafficsimulator.Clock;
 
 /**
  * Declaração de variaveis para identificação.
@@ -53,11 +55,29 @@ public class Declaration extends Procedure implements Procedure.Declaration {
     public final void addVariable(String name, Object value){
         names.add(name);
         values.add(value);
+        Command parent = getParent();
+        if (parent instanceof Block) {
+            ((Block) parent).scopeChanged();
+        }
+    }
+
+    /**
+     * Altera o valor inicial de uma variável já declarada.
+     *
+     * @return false se a variável não é declarada por este comando
+     */
+    public final boolean setVariableValue(String name, Object value) {
+        int i = names.indexOf(name);
+        if (i < 0) {
+            return false;
+        }
+        values.set(i, value);
+        return true;
     }
 
     @Override
-    public void begin(Robot robot, Clock clock) throws ExecutionException {
-        SymbolTable st = getParser().getSymbolTable();
+    public void begin(ExecutionContext context) throws ExecutionException {
+        SymbolTable st = context.getParser().getSymbolTable();
         for (int i = 0; i < names.size(); i++){
             String name = names.get(i);
             Object value = values.get(i);
@@ -69,13 +89,21 @@ public class Declaration extends Procedure implements Procedure.Declaration {
         }
     }
 
+    /**
+     * Obtem os nomes das variáveis (não pode ser modificada: use
+     * {@link #addVariable(String, Object)}).
+     */
     @Override
-    public ArrayList<String> getVariableNames() {
-        return names;
+    public List<String> getVariableNames() {
+        return Collections.unmodifiableList(names);
     }
 
+    /**
+     * Obtem os valores iniciais das variáveis (não pode ser modificada: use
+     * {@link #setVariableValue(String, Object)}).
+     */
     @Override
-    public ArrayList<Object> getVariableValues() {
-        return values;
+    public List<Object> getVariableValues() {
+        return Collections.unmodifiableList(values);
     }
 }
@@ -42,6 +42,7 @@ import org.nfunk.jep.Variable;
 import robotinterface.algorithm.Command;
 import robotinterface.drawable.Drawable;
 import robotinterface.drawable.DrawingPanel;
+import robotinterface.interpreter.Profiler;
 
 /**
  * Função com *futuro* suporte a argumentos. <### EM DESENVOLVIMENTO ###>
@@ -52,8 +53,11 @@ public class Function extends Block implements Drawable {
     private static HashMap<Class<? extends Command>, Point2D.Double[]> wiring;
     public static final Point2D.Double divider = new Point2D.Double(Double.NaN, Double.NaN);
     private static Random randNumGen = new Random(); //para testes
+    private final String name;
+    private Profiler profiler;
 
     public Function(String name, List<Variable> args) {
+        this.name = name;
         teste = new HashMap<>();
         wiring = new HashMap<>();
         randNumGen.setSeed(System.currentTimeMillis());
@@ -74,6 +78,18 @@ public class Function extends Block implements Drawable {
 
     }
 
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Define o profiler usado para colorir o fluxograma pelo tempo gasto em
+     * cada comando (null para desativar).
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
     public static void ident(Block b, double x, double y, double j, double k, double Ix, double Iy, boolean a) {
         /*
          * j - espaçamento entre comandos (pixels)
@@ -387,11 +403,19 @@ public class Function extends Block implements Drawable {
 //            Function.wire(this, myLines, 50, 50, 0, 1, true);
         }
 
+        long maxNanos = (profiler != null) ? profiler.getMaxTotalNanos() : 0;
         for (Command c : teste.keySet()) {
             g.setColor(Color.LIGHT_GRAY);
             Rectangle2D.Double r = teste.get(c);
 
             g.fill(r);
+            if (profiler != null) {
+                double heat = profiler.getHeat(c, maxNanos);
+                if (heat > 0) {
+                    g.setColor(new Color(255, 0, 0, (int) (40 + 180 * heat)));
+                    g.fill(r);
+                }
+            }
             g.setColor(Color.BLACK);
             g.drawString(c.getCommandName(), (int) r.getCenterX(), (int) r.getCenterY());
         }
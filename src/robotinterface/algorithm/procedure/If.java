@@ -26,6 +26,7 @@
 package robotinterface.algorithm.procedure;
 
 import robotinterface.algorithm.Command;
+import robotinterface.interpreter.ExecutionContext;
 import robotinterface.interpreter.ExecutionException;
 
 /**
@@ -65,12 +66,12 @@ public class If extends Procedure {
     }
 
     @Override
-    public Command step() throws ExecutionException {
+    public Command step(ExecutionContext context) throws ExecutionException {
         //calcula o valor da expressão
-        if (evaluate()) {
-            return blockTrue.step();
+        if (evaluate(context)) {
+            return blockTrue.step(context);
         } else {
-            return blockFalse.step();
+            return blockFalse.step(context);
         }
     }
 }
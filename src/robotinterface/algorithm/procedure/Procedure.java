@@ -26,18 +26,17 @@
 package robotinterface.algorithm.procedure;
 
 import robotinterface.algorithm.Command;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.nfunk.jep.JEP;
 import org.nfunk.jep.Variable;
-import robotinterface.robot.Robot;
 import robotinterface.interpreter.ExecutionException;
-import robotinterface.interpreter.Expression;
-import robotinterface.util.trafficsimulator.Clock;
+import robotinterface.interpreter.ExecutionContext;
 
 /**
  * Comando genérico com suporte à variaveis.
  */
-public class Procedure extends Command implements Expression {
+public class Procedure extends Command {
 
     /**
      * Interface para a declaração de multiplas variaveis em algum comando.
@@ -45,17 +44,15 @@ public class Procedure extends Command implements Expression {
      */
     protected interface Declaration {
         
-        public ArrayList<String> getVariableNames ();
+        public List<String> getVariableNames ();
         
-        public ArrayList<Object> getVariableValues ();
+        public List<Object> getVariableValues ();
         
     }
     
-    private static JEP parser;
     private String procedure;
 
     public Procedure() {
-        parser = null;
         procedure = "0";
     }
 
@@ -64,15 +61,6 @@ public class Procedure extends Command implements Expression {
         this.procedure = procedure;
     }    
 
-    protected final JEP getParser() {
-        return parser;
-    }
-
-    @Override
-    public final void setParser(JEP parser) {
-        Procedure.parser = parser;
-    }
-
     public final String getProcedure() {
         return procedure;
     }
@@ -81,50 +69,52 @@ public class Procedure extends Command implements Expression {
         this.procedure = procedure;
     }
     
+    //avalia a expressão ao iniciar; as subclasses que só sobrescrevem
+    //begin/perform(Robot, Clock) continuam sendo chamadas
     @Override
-    public boolean perform(Robot robot, Clock clock) throws ExecutionException{
-        evaluate();
-        return true;
+    public void begin(ExecutionContext context) throws ExecutionException{
+        evaluate(context);
+        begin(context.getRobot(), context.getClock());
     }
     
     //usado pelos descendentes dessa classe para executar expressoes simples
-    protected final Object execute(String procedure) throws ExecutionException {
-        if (parser == null) throw new ExecutionException("Parser not found!");
+    //com as variáveis do interpretador que executa o comando
+    protected final Object execute(ExecutionContext context, String procedure) throws ExecutionException {
+        JEP parser = context.getParser();
         parser.parseExpression(procedure);
         return parser.getValueAsObject();
     }
     
-    protected final boolean evaluate(String procedure) throws ExecutionException {
-        Object o = execute(procedure);
+    protected final boolean evaluate(ExecutionContext context, String procedure) throws ExecutionException {
+        Object o = execute(context, procedure);
         if (o instanceof Number){
-            Double d = ((Number)o).doubleValue();
-            return (d != 0 && !d.isNaN());
+            double d = ((Number)o).doubleValue();
+            return (d != 0 && !Double.isNaN(d));
         }
         return false;
     }
     
-    protected final boolean evaluate() throws ExecutionException {
-        return evaluate(procedure);
+    public final boolean evaluate(ExecutionContext context) throws ExecutionException {
+        return evaluate(context, procedure);
     }
     
-    protected final Variable newVariable (String name, Object value){
-        return parser.getSymbolTable().makeVarIfNeeded(name, value);
+    protected final Variable newVariable (ExecutionContext context, String name, Object value){
+        return context.getParser().getSymbolTable().makeVarIfNeeded(name, value);
     }
     
-    public ArrayList<String> getDeclaredVariables(){
-        ArrayList<String> vars = new ArrayList<>();
-        Command it = this;
-        while (it != null){
-            Command up = it.getPrevious();
-            while (up != null){
-                if (up instanceof Declaration){
-                    vars.addAll(((Declaration)up).getVariableNames());
-                }
-                up = up.getPrevious();
-            }
-            it = it.getParent();
+    /**
+     * Obtem as variáveis declaradas antes deste comando (no mesmo bloco ou
+     * nos blocos externos). A lista é compartilhada e não pode ser
+     * modificada.
+     */
+    public List<String> getDeclaredVariables() {
+        Command parent = getParent();
+        if (parent instanceof Block) {
+            return ((Block) parent).getVisibleVariables(this);
+        } else if (parent instanceof Procedure) {
+            return ((Procedure) parent).getDeclaredVariables();
         }
-        return vars;
+        return Collections.emptyList();
     }
-    
+
 }
@@ -26,6 +26,7 @@
 package robotinterface.algorithm.procedure;
 
 import robotinterface.algorithm.Command;
+import robotinterface.interpreter.ExecutionContext;
 import robotinterface.interpreter.ExecutionException;
 
 /**
@@ -41,10 +42,10 @@ public class While extends Block {
     }
 
     @Override
-    public Command step() throws ExecutionException {
-        if (evaluate()) {
+    public Command step(ExecutionContext context) throws ExecutionException {
+        if (evaluate(context)) {
             return start;
         }
-        return super.step();
+        return super.step(context);
     }
 }
@@ -32,15 +32,26 @@ import robotinterface.drawable.DrawingPanel;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.geom.Rectangle2D;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import robotinterface.robot.connection.Connection;
+import robotinterface.robot.connection.VirtualConnection;
 import robotinterface.robot.device.Device;
 import robotinterface.util.trafficsimulator.Timer;
+import robotinterface.robot.OccupancyGrid;
+import robotinterface.robot.PoseEstimator;
 import robotinterface.robot.Robot;
+import robotinterface.robot.Simulator;
+import robotinterface.util.PointBuffer;
+import robotinterface.robot.simulation.SimulatedCompass;
+import robotinterface.robot.simulation.SimulatedIRSensor;
+import robotinterface.robot.simulation.World;
 import static java.lang.Math.*;
 import robotinterface.robot.device.Compass;
+import robotinterface.robot.device.HBridge;
 import robotinterface.robot.device.IRProximitySensor;
 import robotinterface.util.observable.Observer;
 
@@ -49,11 +60,33 @@ import robotinterface.util.observable.Observer;
  */
 public class SimulationPanel extends DrawingPanel implements Serializable, Observer<Device, Robot> {
 
-    private static final int MAX_ARRAY = 500;
+    private static final int MAX_ARRAY = 100000;
     private final ArrayList<Robot> robots = new ArrayList<>();
-    private final ArrayList<Point> rpos = new ArrayList<>();
-    private final ArrayList<Point> obstacle = new ArrayList<>();
+    //estimadores de pose (odometria + bússola) de cada robô
+    private final HashMap<Robot, PoseEstimator> estimators = new HashMap<>();
+    //posições (escritas pelo timer do relógio)
+    private final PointBuffer rpos = new PointBuffer(MAX_ARRAY);
+    //obstáculos detectados pelos sensores do robô real (escritos pela conexão
+    //de cada robô, em synchronized (obstacle): o buffer tem um único escritor);
+    //a marca de cada ponto é o identificador do obstáculo em detected
+    private final PointBuffer obstacle = new PointBuffer(MAX_ARRAY);
+    private final World detected = new World(Robot.size);
+    //ponto mais próximo (usado pelo desenho)
+    private final double[] nearest = new double[2];
+    //cópias usadas pelo desenho
+    private final int[] snapshotX = new int[MAX_ARRAY];
+    private final int[] snapshotY = new int[MAX_ARRAY];
+    //mapa de ocupação construído com as leituras do IR
+    private final OccupancyGrid map = new OccupancyGrid();
+    //o IR informa cm a partir da borda do robô (veja SimulatedIRSensor); no
+    //desenho as distâncias são em pixels a partir do centro
+    private static final double PX_PER_CM = Robot.size / Robot.SIZE_CM;
+    //alcance do IR no desenho (leituras iguais ou maiores não são obstáculos)
+    private static final double IR_RANGE = Robot.size / 2 + 80 * PX_PER_CM;
+    //ambiente da simulação
+    private final World world = new World(Robot.size);
     private boolean stop = false;
+    private final Simulator simulator = new Simulator();
 
     public SimulationPanel() {
 //        robot.setRightWheelSpeed(50);
@@ -62,44 +95,92 @@ public class SimulationPanel extends DrawingPanel implements Serializable, Obser
         Timer timer = new Timer(100) {
             @Override
             public void run() {
-                for (Robot robot : robots) {
-                    //posição
-                    synchronized (rpos) {
-                        rpos.add(new Point((int) robot.getObjectBouds().x, (int) robot.getObjectBouds().y));
-                        while (rpos.size() > MAX_ARRAY) {
-                            rpos.remove(0);
-                        }
+                synchronized (robots) {
+                    for (Robot robot : robots) {
+                        //posição
+                        Rectangle2D.Double b = robot.getObjectBouds();
+                        rpos.add((int) b.x, (int) b.y);
+//                        if (this.getCount() % 20 == 0) {
+//                            robot.setRightWheelSpeed(Math.random() * 100);
+//                            robot.setLeftWheelSpeed(Math.random() * 100);
+//                        }
                     }
-                    synchronized (obstacle) {
-                        while (obstacle.size() > MAX_ARRAY) {
-                            obstacle.remove(0);
-                        }
-                    }
-//                    if (this.getCount() % 20 == 0) {
-//                        robot.setRightWheelSpeed(Math.random() * 100);
-//                        robot.setLeftWheelSpeed(Math.random() * 100);
-//                    }
                 }
             }
         };
         timer.setDisposable(false);
         clock.addTimer(timer);
         clock.setPaused(false);
+        simulator.setWorld(world);
+        simulator.getEngine().setAcceleration(getAcceleration() * 10 * Robot.SPEED_SCALE);
+        simulator.start();
+    }
+
+    /**
+     * Ambiente (obstáculos) usado pela simulação e pelos sensores
+     * simulados.
+     */
+    public World getWorld() {
+        return world;
+    }
+
+    public OccupancyGrid getMap() {
+        return map;
+    }
+
+    /**
+     * Procura o obstáculo detectado pelos sensores mais próximo de um ponto.
+     *
+     * @param out se não for nulo, recebe o ponto mais próximo {x, y}
+     * @return distância até o obstáculo, ou
+     * {@link Double#POSITIVE_INFINITY} se nenhum estiver dentro de
+     * <code>maxDist</code>
+     */
+    public double getNearestObstacle(double x, double y, double maxDist, double[] out) {
+        return detected.nearest(x, y, maxDist, out);
+    }
+
+    public Simulator getSimulator() {
+        return simulator;
     }
 
     public void addRobot(Robot robot) {
+        PoseEstimator e = new PoseEstimator();
+        e.reset(robot.getX(), robot.getY(), robot.getTheta(), 1, 0.01);
         synchronized (robots) {
             robots.add(robot);
+            estimators.put(robot, e);
         }
         robot.attach(this);
+        simulator.add(robot);
+        //sem um robô real conectado, os sensores são simulados
+        Connection c = robot.getMainConnection();
+        if (c == null || c instanceof VirtualConnection) {
+            for (Device d : robot.getDevices()) {
+                if (d instanceof Compass) {
+                    simulator.addSensor(new SimulatedCompass(robot, (Compass) d));
+                } else if (d instanceof IRProximitySensor) {
+                    simulator.addSensor(new SimulatedIRSensor(robot, (IRProximitySensor) d));
+                }
+            }
+        }
         add(robot);
     }
 
     private void addObstacle(Robot robot, double d) {
-        double tx = robot.getObjectBouds().x + d * cos(robot.getTheta());
-        double ty = robot.getObjectBouds().y + d * sin(robot.getTheta());
+        double x = robot.getObjectBouds().x;
+        double y = robot.getObjectBouds().y;
+        map.integrate(x, y, robot.getTheta(), d, IR_RANGE);
+        if (d >= IR_RANGE) {
+            return;
+        }
+        double tx = x + d * cos(robot.getTheta());
+        double ty = y + d * sin(robot.getTheta());
         synchronized (obstacle) {
-            obstacle.add(new Point((int) tx, (int) ty));
+            if (obstacle.isFull()) {
+                detected.remove(obstacle.getOldestTag());
+            }
+            obstacle.add((int) tx, (int) ty, detected.addCircle(tx, ty, 2.5));
         }
     }
 
@@ -111,7 +192,9 @@ public class SimulationPanel extends DrawingPanel implements Serializable, Obser
             }
         }
         for (Connection c : r.getConnections()) {
-            add((Drawable) c);
+            if (c instanceof Drawable) {
+                add((Drawable) c);
+            }
         }
     }
 
@@ -121,6 +204,17 @@ public class SimulationPanel extends DrawingPanel implements Serializable, Obser
         }
     }
 
+    public static void paintPoints(Graphics2D g, int[] x, int[] y, int n, int size) {
+        //retângulos: com muitos pontos, fillOval (antialiasing) fica lento
+        for (int i = 0; i < n; i++) {
+            g.fillRect(x[i] - size / 2, y[i] - size / 2, size, size);
+        }
+    }
+
+    /**
+     * Aceleração dos motores simulados, em unidades de velocidade do
+     * HBridge por décimo de segundo.
+     */
     public static double getAcceleration() {
         return 10;
     }
@@ -132,6 +226,7 @@ public class SimulationPanel extends DrawingPanel implements Serializable, Obser
 
     @Override
     public void drawBackground(Graphics2D g, GraphicAttributes ga, InputState in) {
+        map.draw(g);
         g.setColor(Color.gray);
         drawGrade(g, 4, (float) ((Robot.size * 100) / Robot.SIZE_CM), getBounds());
     }
@@ -178,16 +273,21 @@ public class SimulationPanel extends DrawingPanel implements Serializable, Obser
                     //desenha o centro
                     g.fillOval((int) (x - 3), (int) (y - 3), 6, 6);
                 }
+
+                //obstáculo detectado mais próximo
+                Rectangle2D.Double b = robot.getObjectBouds();
+                if (getNearestObstacle(b.x, b.y, IR_RANGE, nearest) < IR_RANGE) {
+                    g.setColor(Color.GREEN.darker());
+                    g.drawLine((int) b.x, (int) b.y, (int) nearest[0], (int) nearest[1]);
+                }
             }
         }
         g.setColor(Color.red);
-        synchronized (rpos) {
-            paintPoints(g, rpos, 5);
-        }
+        paintPoints(g, snapshotX, snapshotY, rpos.snapshot(snapshotX, snapshotY), 5);
+        g.setColor(Color.darkGray);
+        world.draw(g);
         g.setColor(Color.GREEN.brighter());
-        synchronized (obstacle) {
-            paintPoints(g, obstacle, 5);
-        }
+        paintPoints(g, snapshotX, snapshotY, obstacle.snapshot(snapshotX, snapshotY), 5);
     }
 
     public static void main(String[] args) {
@@ -200,10 +300,29 @@ public class SimulationPanel extends DrawingPanel implements Serializable, Obser
     @Override
     public void update(Device device, Robot robot) {
         if (device instanceof IRProximitySensor) {
-            addObstacle(robot, ((IRProximitySensor) device).getDist() * 2);
+            addObstacle(robot, Robot.size / 2 + ((IRProximitySensor) device).getDist() * PX_PER_CM);
         }
         if (device instanceof Compass) {
-            robot.setTheta(Math.toRadians(((Compass) device).getAlpha()));
+            PoseEstimator e;
+            synchronized (robots) {
+                e = estimators.get(robot);
+            }
+            if (e != null) {
+                //funde a leitura com as velocidades comandadas na ponte H
+                //(motor 0: roda direita, motor 1: esquerda) ou, sem ela, com
+                //as velocidades atuais das rodas do robô
+                long now = System.nanoTime();
+                HBridge hb = robot.getHBridge();
+                if (hb != null) {
+                    e.setWheelSpeeds(hb.getMotorState(1) * Robot.SPEED_SCALE, hb.getMotorState(0) * Robot.SPEED_SCALE, now);
+                } else {
+                    e.setWheelSpeeds(robot.getLeftWheelSpeed(), robot.getRightWheelSpeed(), now);
+                }
+                e.updateCompass(((Compass) device).getAlpha(), now);
+                robot.setTheta(e.getTheta());
+            } else {
+                robot.setTheta(Math.toRadians(((Compass) device).getAlpha()));
+            }
         }
     }
 }
@@ -0,0 +1,345 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.interpreter;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import robotinterface.algorithm.io.FunctionSerializer;
+import robotinterface.algorithm.procedure.Declaration;
+import robotinterface.algorithm.procedure.Function;
+import robotinterface.algorithm.procedure.Procedure;
+import robotinterface.algorithm.procedure.While;
+import robotinterface.plugins.cmdpack.begginer.Move;
+import robotinterface.plugins.cmdpack.begginer.Wait;
+import robotinterface.plugins.cmdpack.serial.Start;
+import robotinterface.plugins.cmdpack.util.PrintString;
+import robotinterface.robot.Robot;
+import robotinterface.robot.Simulator;
+import robotinterface.robot.connection.VirtualConnection;
+import robotinterface.robot.device.Compass;
+import robotinterface.robot.device.Device;
+import robotinterface.robot.device.HBridge;
+import robotinterface.robot.device.IRProximitySensor;
+import robotinterface.robot.simulation.SimulatedCompass;
+import robotinterface.robot.simulation.SimulatedIRSensor;
+import robotinterface.util.trafficsimulator.Clock;
+
+/**
+ * Executa vários programas em robôs simulados, sem interface gráfica, com
+ * tempo virtual e em paralelo, e grava o resultado de cada execução em CSV.
+ */
+public class BatchRunner {
+
+    /**
+     * Número de ticks seguidos sem instruções nem tempo simulado após o qual
+     * uma execução é considerada travada.
+     */
+    public static final int MAX_IDLE_TICKS = 100000;
+
+    /**
+     * Resultado de uma execução.
+     */
+    public static class Result {
+
+        public static final String CSV_HEADER = "program,run,status,x,y,theta,steps,wall_ms,sim_ms";
+        public final String name;
+        public final int run;
+        public final String status;
+        public final double x, y, theta;
+        public final long steps;
+        public final double wallMillis;
+        public final long simMillis;
+
+        private Result(String name, int run, String status, Robot r, long steps, double wallMillis, long simMillis) {
+            this.name = name;
+            this.run = run;
+            this.status = status;
+            this.x = r.getObjectBouds().x;
+            this.y = r.getObjectBouds().y;
+            this.theta = r.getTheta();
+            this.steps = steps;
+            this.wallMillis = wallMillis;
+            this.simMillis = simMillis;
+        }
+
+        public String toCSV() {
+            return String.format(Locale.US, "%s,%d,%s,%.4f,%.4f,%.6f,%d,%.3f,%d",
+                    name, run, status, x, y, theta, steps, wallMillis, simMillis);
+        }
+    }
+    private final ArrayList<String> names = new ArrayList<>();
+    private final ArrayList<Function> functions = new ArrayList<>();
+    private final ArrayList<Robot> robots = new ArrayList<>();
+    private long maxSimTime = 600000;
+    private long maxSteps = 10000000;
+
+    /**
+     * Adiciona uma execução. Cada execução deve ter a sua própria função e o
+     * seu próprio robô, pois os comandos guardam estado durante a execução.
+     */
+    public void add(String name, Function f, Robot r) {
+        names.add(name);
+        functions.add(f);
+        robots.add(r);
+    }
+
+    /**
+     * Define o tempo simulado máximo de cada execução.
+     */
+    public void setMaxSimTime(long milis) {
+        maxSimTime = milis;
+    }
+
+    /**
+     * Define o numero máximo de instruções de cada execução (evita que um
+     * laço sem espera nunca termine).
+     */
+    public void setMaxSteps(long steps) {
+        maxSteps = steps;
+    }
+
+    /**
+     * Executa todas as execuções adicionadas.
+     *
+     * @param threads numero de threads usadas
+     * @return os resultados, na ordem em que foram adicionadas
+     */
+    public List<Result> run(int threads) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Result>> futures = new ArrayList<>();
+        for (int i = 0; i < functions.size(); i++) {
+            final String name = names.get(i);
+            final int run = i;
+            final Function f = functions.get(i);
+            final Robot r = robots.get(i);
+            futures.add(executor.submit(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    return BatchRunner.run(name, run, f, r, maxSimTime, maxSteps);
+                }
+            }));
+        }
+        ArrayList<Result> results = new ArrayList<>();
+        try {
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        } catch (java.util.concurrent.ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Executa um programa em um robô simulado até ele terminar ou atingir os
+     * limites de tempo simulado ou de instruções. Programas com erros
+     * encontrados pelo {@link Validator} não são executados.
+     *
+     * Um programa que deixa de avançar (sem instruções nem tempo simulado
+     * por {@link #MAX_IDLE_TICKS} ticks, ou esperando algo que não é um
+     * timer) termina com o estado "stalled".
+     */
+    public static Result run(String name, int run, Function f, Robot r, long maxSimTime, long maxSteps) {
+        List<Validator.Issue> issues = new Validator(r).validate(f);
+        if (Validator.hasErrors(issues)) {
+            for (Validator.Issue i : issues) {
+                System.err.println(name + " #" + run + ": " + i);
+            }
+            return new Result(name, run, "invalid", r, 0, 0, 0);
+        }
+        Interpreter interpreter = new Interpreter(r);
+        interpreter.setMainFunction(f);
+        Clock clock = interpreter.getClock();
+        clock.setVirtualTime(true);
+        //cinemática em passos fixos, independente do ritmo do interpretador;
+        //os sensores do robô passam a ler o estado simulado
+        Simulator sim = new Simulator();
+        sim.add(r);
+        for (Device d : r.getDevices()) {
+            if (d instanceof Compass) {
+                sim.addSensor(new SimulatedCompass(r, (Compass) d));
+            } else if (d instanceof IRProximitySensor) {
+                sim.addSensor(new SimulatedIRSensor(r, (IRProximitySensor) d));
+            }
+        }
+        long start = System.nanoTime();
+        double last = clock.getTime();
+        long lastSteps = -1;
+        int idle = 0;
+        String status;
+        while (true) {
+            //tick para no próximo timer; a simulação chega ao mesmo tempo
+            //antes do comando ler os sensores no tick seguinte
+            boolean running = interpreter.tick();
+            double time = clock.getTime();
+            sim.advance((time - last) / 1000.0);
+            long steps = interpreter.getSteps();
+            idle = (time == last && steps == lastSteps) ? idle + 1 : 0;
+            last = time;
+            lastSteps = steps;
+            long now = clock.getElapsedMilis();
+            if (!running) {
+                if (interpreter.isStalled()) {
+                    status = "stalled";
+                } else {
+                    status = (interpreter.getError() != null) ? "error" : "done";
+                }
+                break;
+            } else if (idle >= MAX_IDLE_TICKS) {
+                status = "stalled";
+                break;
+            } else if (now >= maxSimTime) {
+                status = "timeout";
+                break;
+            } else if (interpreter.getSteps() >= maxSteps) {
+                status = "steps";
+                break;
+            }
+        }
+        sim.remove(r);
+        double wall = (System.nanoTime() - start) / 1e6;
+        return new Result(name, run, status, r, interpreter.getSteps(), wall, clock.getElapsedMilis());
+    }
+
+    public static void writeCSV(List<Result> results, Writer out) throws IOException {
+        PrintWriter pw = new PrintWriter(out);
+        pw.println(Result.CSV_HEADER);
+        for (Result r : results) {
+            pw.println(r.toCSV());
+        }
+        pw.flush();
+    }
+
+    /**
+     * Cria um robô simulado com ponte H, bússola e uma conexão virtual.
+     */
+    public static Robot createSimulatedRobot() {
+        Robot r = new Robot();
+        r.add(new HBridge(1));
+        r.add(new Compass());
+        r.add(new VirtualConnection());
+        return r;
+    }
+
+    private static Function createDemoFunction() {
+        Function func = new Function("main", null);
+        func.add(new Start());
+        func.add(new Declaration("i", 4));
+        While loop = new While("i > 0");
+        loop.add(new Move(70, 70)); //move
+        loop.add(new Wait(1000));
+        loop.add(new Move(-70, 70)); //gira
+        loop.add(new Wait(500));
+        loop.add(new Move(0, 0)); //para
+        loop.add(new Procedure("i = i - 1"));
+        func.add(loop);
+        return func;
+    }
+
+    /**
+     * Argumentos (opcionais): -n execuções, -t tempo simulado máximo (s),
+     * -j threads, -o arquivo CSV (padrão: saída padrão), -p programa salvo
+     * (pode ser repetido; padrão: programa de demonstração), -v exibe as
+     * mensagens dos programas.
+     */
+    public static void main(String[] args) throws Exception {
+        int n = 100;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long maxSimTime = 600000;
+        String output = null;
+        boolean verbose = false;
+        ArrayList<File> programs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-n":
+                    n = Integer.parseInt(args[++i]);
+                    break;
+                case "-t":
+                    maxSimTime = (long) (Double.parseDouble(args[++i]) * 1000);
+                    break;
+                case "-j":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-o":
+                    output = args[++i];
+                    break;
+                case "-p":
+                    programs.add(new File(args[++i]));
+                    break;
+                case "-v":
+                    verbose = true;
+                    break;
+                default:
+                    System.err.println("Argumento inválido: " + args[i]);
+                    return;
+            }
+        }
+
+        if (!verbose) {
+            PrintString.setDefaultOutput(new PrintString.Output() {
+                @Override
+                public void print(Robot robot, CharSequence str) {
+                }
+            });
+        }
+
+        BatchRunner runner = new BatchRunner();
+        runner.setMaxSimTime(maxSimTime);
+        for (int i = 0; i < n; i++) {
+            if (programs.isEmpty()) {
+                runner.add("demo", createDemoFunction(), createSimulatedRobot());
+            } else {
+                //cada execução usa uma cópia própria do programa
+                File file = programs.get(i % programs.size());
+                runner.add(file.getName(), FunctionSerializer.load(file), createSimulatedRobot());
+            }
+        }
+
+        long start = System.nanoTime();
+        List<Result> results = runner.run(threads);
+        double wall = (System.nanoTime() - start) / 1e6;
+
+        Writer out = (output != null) ? new FileWriter(output) : new OutputStreamWriter(System.out);
+        writeCSV(results, out);
+        if (output != null) {
+            out.close();
+        }
+        System.err.printf(Locale.US, "%d execuções em %.1f ms (%d threads)%n", n, wall, threads);
+    }
+}
@@ -0,0 +1,341 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.interpreter;
+
+import org.nfunk.jep.ASTConstant;
+import org.nfunk.jep.ASTFunNode;
+import org.nfunk.jep.ASTVarNode;
+import org.nfunk.jep.JEP;
+import org.nfunk.jep.Node;
+import org.nfunk.jep.OperatorSet;
+import org.nfunk.jep.Variable;
+import org.nfunk.jep.function.PostfixMathCommandI;
+
+/**
+ * Expressão numérica compilada a partir da árvore do JEP, avaliada em
+ * <code>double</code> sem alocar objetos.
+ *
+ * Somente expressões com constantes numéricas, variáveis, operadores
+ * aritméticos, relacionais e lógicos e algumas funções de uma variável são
+ * compiladas; as demais (textos, atribuições, funções desconhecidas)
+ * continuam sendo avaliadas pelo JEP. Se uma variável não contém um número
+ * durante a avaliação (ou o JEP produziria um número complexo),
+ * {@link #NOT_NUMBER} é lançada e a expressão deve ser avaliada pelo JEP.
+ */
+public abstract class CompiledExpression {
+
+    /**
+     * Lançada quando uma variável não contém um valor numérico válido.
+     */
+    public static final class NotNumberException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private NotNumberException() {
+            super("valor não numérico", null, false, false);
+        }
+    }
+    public static final NotNumberException NOT_NUMBER = new NotNumberException();
+
+    public abstract double eval();
+
+    /**
+     * Avalia a expressão como condição, com a mesma regra de
+     * {@link robotinterface.algorithm.procedure.Procedure#evaluate()}:
+     * verdadeira se diferente de zero e de NaN.
+     */
+    public final boolean test() {
+        double d = eval();
+        return d != 0 && d == d;
+    }
+
+    /**
+     * Compila uma expressão já analisada pelo parser.
+     *
+     * @return null se a expressão não pode ser compilada
+     */
+    public static CompiledExpression compile(Node node, JEP parser) {
+        if (node instanceof ASTConstant) {
+            Object value = ((ASTConstant) node).getValue();
+            if (value instanceof Number) {
+                return new Constant(((Number) value).doubleValue());
+            }
+            return null;
+        } else if (node instanceof ASTVarNode) {
+            return new Var(((ASTVarNode) node).getVar());
+        } else if (!(node instanceof ASTFunNode)) {
+            return null;
+        }
+
+        ASTFunNode fun = (ASTFunNode) node;
+        int n = fun.jjtGetNumChildren();
+        CompiledExpression[] args = new CompiledExpression[n];
+        for (int i = 0; i < n; i++) {
+            args[i] = compile(fun.jjtGetChild(i), parser);
+            if (args[i] == null) {
+                return null;
+            }
+        }
+
+        if (fun.getOperator() != null) {
+            OperatorSet ops = parser.getOperatorSet();
+            int op;
+            if (n == 1) {
+                if (fun.getOperator() == ops.getUMinus()) {
+                    return new Unary(Unary.NEG, args[0]);
+                } else if (fun.getOperator() == ops.getNot()) {
+                    return new Unary(Unary.NOT, args[0]);
+                }
+                return null;
+            } else if (n != 2) {
+                return null;
+            } else if (fun.getOperator() == ops.getAdd()) {
+                op = Binary.ADD;
+            } else if (fun.getOperator() == ops.getSubtract()) {
+                op = Binary.SUB;
+            } else if (fun.getOperator() == ops.getMultiply()) {
+                op = Binary.MUL;
+            } else if (fun.getOperator() == ops.getDivide()) {
+                op = Binary.DIV;
+            } else if (fun.getOperator() == ops.getMod()) {
+                op = Binary.MOD;
+            } else if (fun.getOperator() == ops.getPower()) {
+                op = Binary.POW;
+            } else if (fun.getOperator() == ops.getLT()) {
+                op = Binary.LT;
+            } else if (fun.getOperator() == ops.getGT()) {
+                op = Binary.GT;
+            } else if (fun.getOperator() == ops.getLE()) {
+                op = Binary.LE;
+            } else if (fun.getOperator() == ops.getGE()) {
+                op = Binary.GE;
+            } else if (fun.getOperator() == ops.getEQ()) {
+                op = Binary.EQ;
+            } else if (fun.getOperator() == ops.getNE()) {
+                op = Binary.NE;
+            } else if (fun.getOperator() == ops.getAnd()) {
+                op = Binary.AND;
+            } else if (fun.getOperator() == ops.getOr()) {
+                op = Binary.OR;
+            } else {
+                return null;
+            }
+            return new Binary(op, args[0], args[1]);
+        }
+
+        //funções padrão
+        if (n != 1) {
+            return null;
+        }
+        PostfixMathCommandI pfmc = parser.getFunctionTable().get(fun.getName());
+        if (pfmc != fun.getPFMC()) {
+            return null; //função redefinida
+        }
+        switch (fun.getName()) {
+            case "sin":
+                return new Function(Function.SIN, args[0]);
+            case "cos":
+                return new Function(Function.COS, args[0]);
+            case "tan":
+                return new Function(Function.TAN, args[0]);
+            case "atan":
+                return new Function(Function.ATAN, args[0]);
+            case "sqrt":
+                return new Function(Function.SQRT, args[0]);
+            case "abs":
+                return new Function(Function.ABS, args[0]);
+            case "exp":
+                return new Function(Function.EXP, args[0]);
+            case "ln":
+                return new Function(Function.LN, args[0]);
+            default:
+                return null;
+        }
+    }
+
+    //o JEP retorna um número complexo onde o resultado real é NaN
+    private static double real(double r, double x, double y) {
+        if (r != r && x == x && y == y) {
+            throw NOT_NUMBER;
+        }
+        return r;
+    }
+
+    private static final class Constant extends CompiledExpression {
+
+        private final double value;
+
+        private Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double eval() {
+            return value;
+        }
+    }
+
+    private static final class Var extends CompiledExpression {
+
+        private final Variable var;
+
+        private Var(Variable var) {
+            this.var = var;
+        }
+
+        @Override
+        public double eval() {
+            Object value = var.getValue();
+            if (value instanceof Number && var.hasValidValue()) {
+                return ((Number) value).doubleValue();
+            }
+            throw NOT_NUMBER;
+        }
+    }
+
+    private static final class Unary extends CompiledExpression {
+
+        private static final int NEG = 0;
+        private static final int NOT = 1;
+        private final int op;
+        private final CompiledExpression a;
+
+        private Unary(int op, CompiledExpression a) {
+            this.op = op;
+            this.a = a;
+        }
+
+        @Override
+        public double eval() {
+            double x = a.eval();
+            return (op == NEG) ? -x : ((x == 0) ? 1 : 0);
+        }
+    }
+
+    private static final class Binary extends CompiledExpression {
+
+        private static final int ADD = 0;
+        private static final int SUB = 1;
+        private static final int MUL = 2;
+        private static final int DIV = 3;
+        private static final int MOD = 4;
+        private static final int POW = 5;
+        private static final int LT = 6;
+        private static final int GT = 7;
+        private static final int LE = 8;
+        private static final int GE = 9;
+        private static final int EQ = 10;
+        private static final int NE = 11;
+        private static final int AND = 12;
+        private static final int OR = 13;
+        private final int op;
+        private final CompiledExpression a, b;
+
+        private Binary(int op, CompiledExpression a, CompiledExpression b) {
+            this.op = op;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public double eval() {
+            double x = a.eval();
+            double y = b.eval();
+            switch (op) {
+                case ADD:
+                    return x + y;
+                case SUB:
+                    return x - y;
+                case MUL:
+                    return x * y;
+                case DIV:
+                    return x / y;
+                case MOD:
+                    return x % y;
+                case POW:
+                    return real(Math.pow(x, y), x, y);
+                case LT:
+                    return (x < y) ? 1 : 0;
+                case GT:
+                    return (x > y) ? 1 : 0;
+                case LE:
+                    return (x <= y) ? 1 : 0;
+                case GE:
+                    return (x >= y) ? 1 : 0;
+                case EQ:
+                    return (x == y) ? 1 : 0;
+                case NE:
+                    return (x != y) ? 1 : 0;
+                case AND:
+                    return (x != 0 && y != 0) ? 1 : 0;
+                default:
+                    return (x != 0 || y != 0) ? 1 : 0;
+            }
+        }
+    }
+
+    private static final class Function extends CompiledExpression {
+
+        private static final int SIN = 0;
+        private static final int COS = 1;
+        private static final int TAN = 2;
+        private static final int ATAN = 3;
+        private static final int SQRT = 4;
+        private static final int ABS = 5;
+        private static final int EXP = 6;
+        private static final int LN = 7;
+        private final int f;
+        private final CompiledExpression a;
+
+        private Function(int f, CompiledExpression a) {
+            this.f = f;
+            this.a = a;
+        }
+
+        @Override
+        public double eval() {
+            double x = a.eval();
+            switch (f) {
+                case SIN:
+                    return Math.sin(x);
+                case COS:
+                    return Math.cos(x);
+                case TAN:
+                    return Math.tan(x);
+                case ATAN:
+                    return Math.atan(x);
+                case SQRT:
+                    return real(Math.sqrt(x), x, 0);
+                case ABS:
+                    return Math.abs(x);
+                case EXP:
+                    return Math.exp(x);
+                default:
+                    return real(Math.log(x), x, 0);
+            }
+        }
+    }
+}
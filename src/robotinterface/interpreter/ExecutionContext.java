@@ -0,0 +1,83 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.interpreter;
+
+import java.util.IdentityHashMap;
+import org.nfunk.jep.JEP;
+import robotinterface.algorithm.Command;
+import robotinterface.robot.Robot;
+import robotinterface.util.trafficsimulator.Clock;
+import robotinterface.util.trafficsimulator.Timer;
+
+/**
+ * Estado de execução de um interpretador: o parser (com as variáveis do
+ * programa), o robô, o relógio e os timers dos comandos que esperam.
+ *
+ * Cada {@link Interpreter} tem o seu contexto e o passa aos comandos em
+ * {@link Command#begin(ExecutionContext)} e
+ * {@link Command#perform(ExecutionContext)}; os comandos não guardam estado
+ * de execução. Assim vários interpretadores podem executar a mesma
+ * {@link robotinterface.algorithm.procedure.Function} em paralelo.
+ */
+public class ExecutionContext {
+
+    private final JEP parser;
+    private final Robot robot;
+    private final Clock clock;
+    //usado apenas pela thread do interpretador
+    private final IdentityHashMap<Command, Timer> timers = new IdentityHashMap<>();
+
+    public ExecutionContext(Robot robot, Clock clock) {
+        this.robot = robot;
+        this.clock = clock;
+        parser = new JEP();
+    }
+
+    public JEP getParser() {
+        return parser;
+    }
+
+    public Robot getRobot() {
+        return robot;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Obtem o timer deste interpretador para um comando, criado na primeira
+     * chamada com o intervalo <code>milis</code>.
+     */
+    public Timer getTimer(Command c, long milis) {
+        Timer t = timers.get(c);
+        if (t == null) {
+            t = new Timer(milis);
+            timers.put(c, t);
+        }
+        return t;
+    }
+}
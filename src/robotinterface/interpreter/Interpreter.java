@@ -31,7 +31,16 @@ import robotinterface.algorithm.procedure.Function;
 import robotinterface.algorithm.procedure.If;
 import robotinterface.algorithm.procedure.While;
 import robotinterface.algorithm.procedure.Procedure;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
 import org.nfunk.jep.JEP;
+import org.nfunk.jep.Node;
+import org.nfunk.jep.ParseException;
+import org.nfunk.jep.SymbolTable;
+import org.nfunk.jep.Variable;
 import robotinterface.drawable.Drawable;
 import robotinterface.drawable.DrawingPanel;
 import robotinterface.drawable.util.QuickFrame;
@@ -51,22 +60,92 @@ import robotinterface.util.trafficsimulator.Clock;
  */
 public class Interpreter extends Thread {
 
-    private JEP parser;
+    /**
+     * Recebe as paradas do interpretador (chamado na thread do
+     * interpretador).
+     */
+    public interface BreakListener {
+
+        /**
+         * @param command comando do ponto de parada, ou o comando que tornou
+         * a expressão observada verdadeira
+         * @param watchpoint expressão observada, ou null para um ponto de
+         * parada
+         * @param variables variáveis no momento da parada
+         */
+        public void paused(Interpreter interpreter, Command command, String watchpoint, Map<String, Object> variables);
+    }
+
+    /**
+     * Numero de voltas de um While a partir do qual o seu corpo é compilado.
+     */
+    public static final int HOT_LOOP_THRESHOLD = 50;
+    //numero máximo de instruções compiladas executadas em um tick
+    private static final int FUSED_BUDGET = 10000;
+    private final ExecutionContext context;
+    private final JEP parser;
     private Function mainFunction;
-    private Command currentCmd = null;
+    private Program program;
+    private int pc = 0;
+    //voltas de cada While, indexado pela instrução de inicio do laço
+    private int[] backEdges;
+    //instruções puras (sem E/S) de laços quentes e suas expressões
+    private boolean[] fused;
+    private Node[] nodes;
+    //condições de If/While compiladas para avaliação sem alocação
+    private CompiledExpression[] conditions;
+    //registros do profiler indexados pela instrução (null se desativado)
+    private Profiler profiler;
+    private Profiler.Entry[] profile;
+    private long profileStart, profileCpu, profileClock;
+    //pontos de parada por instrução: TRAP_BREAK para antes da instrução e
+    //TRAP_WATCH verifica as expressões observadas depois dela
+    private static final byte TRAP_BREAK = 1;
+    private static final byte TRAP_WATCH = 2;
+    private byte[] traps;
+    private final Object debugLock = new Object();
+    private final HashSet<Integer> breakpoints = new HashSet<>();
+    private final ArrayList<String> watchpoints = new ArrayList<>();
+    private volatile boolean debugChanged = false;
+    private String[] watchExpressions = new String[0];
+    private Node[] watchNodes;
+    private CompiledExpression[] watchCompiled;
+    private boolean[] watchState;
+    private int resumeAt = -1;
+    private volatile boolean paused = false;
+    private boolean clockHeld = false;
+    private final Object pauseLock = new Object();
+    private BreakListener breakListener;
+    private Map<String, Object> snapshot = Collections.emptyMap();
+    private boolean waiting = false;
+    private boolean stalled = false;
+    private long steps = 0;
+    private ExecutionException error = null;
     private Robot robot;
-    private Clock clock = new Clock();
+    private final Clock clock = new Clock();
 
     public Interpreter(Robot r) {
         super("Interpreter::" + r.toString());
-        parser = new JEP();
         robot = r;
+        context = new ExecutionContext(r, clock);
+        parser = context.getParser();
     }
 
     public void reset() {
         if (mainFunction != null) {
-            currentCmd = mainFunction.get(0);
+            program = Linker.link(mainFunction);
+            backEdges = new int[program.size()];
+            fused = new boolean[program.size()];
+            nodes = new Node[program.size()];
+            conditions = new CompiledExpression[program.size()];
+            bindProfiler();
         }
+        pc = 0;
+        resumeAt = -1;
+        waiting = false;
+        stalled = false;
+        steps = 0;
+        error = null;
         parser.initFunTab(); // clear the contents of the function table
         parser.addStandardFunctions();
 //        parser.setTraverse(true); //exibe debug
@@ -75,46 +154,637 @@ public class Interpreter extends Thread {
         parser.addStandardConstants();
         parser.setAllowAssignment(true);
 //        parser.setAllowUndeclared(true);
+        if (program != null) {
+            compileConditions();
+            bindTraps();
+        }
+    }
+
+    /**
+     * Compila as condições de If e While ao carregar o programa. As
+     * variáveis declaradas no programa são criadas antecipadamente (sem
+     * valor, como se estivessem fora do escopo) para que as expressões
+     * possam ser ligadas a elas; {@link Declaration} reutiliza a mesma
+     * variável ao atribuir o valor.
+     */
+    private void compileConditions() {
+        SymbolTable st = parser.getSymbolTable();
+        for (int i = 0; i < program.size(); i++) {
+            Command cmd = program.getCommand(i);
+            if (cmd instanceof Declaration) {
+                for (String name : ((Declaration) cmd).getVariableNames()) {
+                    st.makeVarIfNeeded(name);
+                }
+            }
+        }
+        for (int i = 0; i < program.size(); i++) {
+            if (program.getOpcode(i) == Program.OP_BRANCH) {
+                try {
+                    Node node = parser.parse(((Procedure) program.getCommand(i)).getProcedure());
+                    conditions[i] = CompiledExpression.compile(node, parser);
+                } catch (ParseException e) {
+                    //avaliada pelo caminho normal (e falsa)
+                }
+            }
+        }
+    }
+
+    private boolean test(int pc) throws ExecutionException {
+        CompiledExpression c = conditions[pc];
+        if (c != null) {
+            try {
+                return c.test();
+            } catch (CompiledExpression.NotNumberException e) {
+                //variável sem valor numérico: avalia pelo JEP
+            }
+        }
+        return ((Procedure) program.getCommand(pc)).evaluate(context);
+    }
+
+    /**
+     * Ativa (ou desativa, com null) o registro do tempo gasto em cada
+     * comando. O fluxograma da função principal passa a exibir o tempo de
+     * cada comando.
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+        if (mainFunction != null) {
+            mainFunction.setProfiler(profiler);
+        }
+        if (program != null) {
+            bindProfiler();
+        }
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    private void bindProfiler() {
+        if (profiler == null) {
+            profile = null;
+            return;
+        }
+        profile = new Profiler.Entry[program.size()];
+        for (int i = 0; i < program.size(); i++) {
+            profile[i] = profiler.getEntry(program.getCommand(i));
+        }
+    }
+
+    //registra o tempo de uma instrução de controle ou compilada
+    private void profileStep(int at, long start) {
+        Profiler.Entry e = profile[at];
+        long t = System.nanoTime() - start;
+        switch (program.getOpcode(at)) {
+            case Program.OP_COMMAND:
+                e.count++;
+                e.performNanos += t;
+                break;
+            case Program.OP_BRANCH:
+                e.count++;
+                e.stepNanos += t;
+                break;
+            default:
+                //o fim de um While é contado junto com a sua condição
+                if (!(e.getCommand() instanceof While)) {
+                    e.count++;
+                }
+                e.stepNanos += t;
+        }
+    }
+
+    /**
+     * Para antes de executar o comando (na condição, para If e While).
+     */
+    public void addBreakpoint(int commandID) {
+        synchronized (debugLock) {
+            breakpoints.add(commandID);
+            debugChanged = true;
+        }
+    }
+
+    public void removeBreakpoint(int commandID) {
+        synchronized (debugLock) {
+            breakpoints.remove(commandID);
+            debugChanged = true;
+        }
+    }
+
+    /**
+     * Para quando a expressão se torna verdadeira. A expressão é verificada
+     * após cada comando que pode alterar variáveis.
+     */
+    public void addWatchpoint(String expression) {
+        synchronized (debugLock) {
+            watchpoints.add(expression);
+            debugChanged = true;
+        }
+    }
+
+    public void removeWatchpoint(String expression) {
+        synchronized (debugLock) {
+            watchpoints.remove(expression);
+            debugChanged = true;
+        }
+    }
+
+    public void clearBreakpoints() {
+        synchronized (debugLock) {
+            breakpoints.clear();
+            watchpoints.clear();
+            debugChanged = true;
+        }
+    }
+
+    public void setBreakListener(BreakListener listener) {
+        breakListener = listener;
+    }
+
+    /**
+     * Pausa ou continua a execução. Enquanto pausado o comando atual e o
+     * relógio param; um ponto de parada também pausa o interpretador.
+     */
+    public void setPaused(boolean paused) {
+        synchronized (pauseLock) {
+            this.paused = paused;
+            pauseLock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Obtem as variáveis no momento da última parada.
+     */
+    public Map<String, Object> getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Obtem as variáveis com valor definido (sem as constantes). Deve ser
+     * chamado com o interpretador pausado ou na sua thread.
+     */
+    public Map<String, Object> getVariables() {
+        TreeMap<String, Object> vars = new TreeMap<>();
+        for (Object o : parser.getSymbolTable().values()) {
+            Variable v = (Variable) o;
+            if (v.hasValidValue() && !v.isConstant()) {
+                vars.put(v.getName(), v.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(vars);
+    }
+
+    //monta a tabela de pontos de parada do programa atual
+    private void bindTraps() {
+        synchronized (debugLock) {
+            debugChanged = false;
+            if (program == null) {
+                return;
+            }
+            byte[] t = new byte[program.size()];
+            HashSet<Integer> found = new HashSet<>();
+            for (int i = 0; i < program.size(); i++) {
+                Command cmd = program.getCommand(i);
+                //somente a primeira instrução do comando (condição do While)
+                if (breakpoints.contains(cmd.getID()) && found.add(cmd.getID())) {
+                    t[i] |= TRAP_BREAK;
+                }
+                if (!watchpoints.isEmpty() && program.getOpcode(i) == Program.OP_COMMAND
+                        && cmd instanceof Procedure) {
+                    t[i] |= TRAP_WATCH;
+                }
+            }
+            int n = watchpoints.size();
+            watchExpressions = watchpoints.toArray(new String[n]);
+            watchNodes = new Node[n];
+            watchCompiled = new CompiledExpression[n];
+            watchState = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                try {
+                    watchNodes[i] = parser.parse(watchExpressions[i]);
+                    watchCompiled[i] = CompiledExpression.compile(watchNodes[i], parser);
+                    watchState[i] = evaluateWatch(i);
+                } catch (ParseException e) {
+                    System.err.println("Expressão observada inválida: " + watchExpressions[i]);
+                }
+            }
+            traps = t;
+        }
+    }
+
+    private boolean evaluateWatch(int i) {
+        if (watchCompiled[i] != null) {
+            try {
+                return watchCompiled[i].test();
+            } catch (CompiledExpression.NotNumberException e) {
+            }
+        }
+        try {
+            return watchNodes[i] != null && isTrue(parser.evaluate(watchNodes[i]));
+        } catch (ParseException e) {
+            return false; //variável fora do escopo
+        }
+    }
+
+    //verifica as expressões observadas após o comando at
+    private boolean checkWatchpoints(int at) {
+        boolean hit = false;
+        for (int i = 0; i < watchExpressions.length; i++) {
+            boolean value = evaluateWatch(i);
+            if (value && !watchState[i] && !hit) {
+                hit = true;
+                enterBreak(program.getCommand(at), watchExpressions[i]);
+            }
+            watchState[i] = value;
+        }
+        return hit;
+    }
+
+    //para antes da instrução at; ao continuar ela é executada
+    private boolean breakAt(int at) {
+        if (resumeAt == at) {
+            resumeAt = -1;
+            return false;
+        }
+        resumeAt = at;
+        enterBreak(program.getCommand(at), null);
+        return true;
+    }
+
+    private void enterBreak(Command cmd, String watchpoint) {
+        paused = true;
+        holdClock(true);
+        snapshot = getVariables();
+        BreakListener l = breakListener;
+        if (l != null) {
+            l.paused(this, cmd, watchpoint, snapshot);
+        }
+    }
+
+    private void holdClock(boolean hold) {
+        if (hold != clockHeld) {
+            clockHeld = hold;
+            clock.setPaused(hold);
+        }
     }
 
     public void setMainFunction(Function f) {
         mainFunction = f;
+        if (f != null && profiler != null) {
+            f.setProfiler(profiler);
+        }
         reset();
     }
 
     public void setCommand(Command c) {
     }
 
-    public boolean step() {
+    /**
+     * Avança o comando atual sem bloquear: se o comando ainda não terminou
+     * retorna imediatamente e continua de onde parou na próxima chamada.
+     * Instruções de controle (If/While/fim de bloco) são executadas em
+     * sequência até o próximo comando ou o próximo salto para trás.
+     *
+     * @return false se o programa terminou ou ocorreu um erro
+     */
+    public boolean tick() {
 
-        if (currentCmd == null) {
+        if (program == null || pc >= program.size()) {
             return false;
         }
-        clock.setPaused(false);
-        //System.out.println(currentCmd); //exibe o comando atual
+        if (paused) {
+            holdClock(true);
+            return true;
+        }
+        holdClock(false);
+        if (debugChanged) {
+            bindTraps();
+        }
+        byte[] traps = this.traps;
         try {
-            if (currentCmd instanceof Procedure) {
-                ((Procedure) currentCmd).setParser(parser);
-            }
-            currentCmd.begin(robot, clock);
-            while (!currentCmd.perform(robot, clock)) {
-                clock.increase();
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException ex) {
+            while (pc < program.size()) {
+                if (!waiting) {
+                    byte trap = traps[pc];
+                    if (trap == 0) {
+                        if (fused[pc]) {
+                            if (!runFused(traps)) {
+                                return true;
+                            }
+                            continue;
+                        }
+                    } else if ((trap & TRAP_BREAK) != 0 && breakAt(pc)) {
+                        return true;
+                    }
+                }
+                Command cmd = program.getCommand(pc);
+                //System.out.println(cmd); //exibe o comando atual
+                int at = pc;
+                long start = (profile != null) ? System.nanoTime() : 0;
+                switch (program.getOpcode(pc)) {
+                    case Program.OP_COMMAND:
+                        Profiler.Entry entry = (profile != null) ? profile[pc] : null;
+                        if (!waiting) {
+                            clock.setPaused(false);
+                            cmd.begin(context);
+                            waiting = true;
+                            if (entry != null) {
+                                long t = System.nanoTime();
+                                entry.count++;
+                                entry.beginNanos += t - start;
+                                profileCpu = t - start;
+                                profileStart = start;
+                                profileClock = clock.getElapsedMilis();
+                                start = t;
+                            }
+                        } else if (!clock.isVirtualTime()) {
+                            clock.increase();
+                        }
+                        boolean done = cmd.perform(context);
+                        //com tempo virtual salta direto para o próximo timer e
+                        //retorna: perform só é chamado no próximo tick, depois
+                        //de quem controla o interpretador atualizar a simulação
+                        //até o novo tempo (veja BatchRunner)
+                        if (!done && clock.isVirtualTime()
+                                && !clock.advanceToNextDeadline() && !clock.isPaused()) {
+                            //nenhum timer pendente: o tempo virtual não avança mais
+                            stalled = true;
+                            throw new ExecutionException("Comando " + cmd.getCommandName() + " esperando sem timer pendente (tempo virtual)");
+                        }
+                        if (entry != null) {
+                            long t = System.nanoTime();
+                            entry.performNanos += t - start;
+                            profileCpu += t - start;
+                            if (done) {
+                                entry.waitNanos += (t - profileStart) - profileCpu;
+                                entry.clockMillis += clock.getElapsedMilis() - profileClock;
+                            }
+                        }
+                        if (done) {
+                            waiting = false;
+                            steps++;
+                            pc = program.getJump(pc);
+                            if ((traps[at] & TRAP_WATCH) != 0) {
+                                checkWatchpoints(at);
+                            }
+                        }
+                        return true;
+                    case Program.OP_BRANCH:
+                        steps++;
+                        if (test(pc)) {
+                            pc++;
+                        } else {
+                            pc = program.getJump(pc);
+                        }
+                        if (profile != null) {
+                            profileStep(at, start);
+                        }
+                        break;
+                    case Program.OP_END:
+                        steps++;
+                        resetVariableScope(program.getScope(pc));
+                        int next = program.getJump(pc);
+                        boolean backward = next <= pc;
+                        if (backward && ++backEdges[next] == HOT_LOOP_THRESHOLD) {
+                            compileLoop(next, pc);
+                        }
+                        pc = next;
+                        if (profile != null) {
+                            profileStep(at, start);
+                        }
+                        if (backward) {
+                            return true;
+                        }
+                        break;
                 }
             }
-            currentCmd = currentCmd.step();
         } catch (ExecutionException e) {
             System.out.println("Erro");
             e.printStackTrace();
+            error = e;
+            waiting = false;
             return false;
         }
         return true;
     }
 
+    /**
+     * Compila o corpo de um While quente: as expressões de If, While e
+     * Procedure são analisadas uma única vez, e as instruções sem E/S de
+     * dispositivo (Procedure, Declaration, If, While e fins de bloco) passam
+     * a ser executadas em sequência por {@link #runFused()}. Comandos como
+     * Move, ReadDevice e Wait continuam sendo os pontos de espera.
+     */
+    private void compileLoop(int head, int end) {
+        for (int i = head; i <= end; i++) {
+            if (fused[i]) {
+                continue; //laço interno já compilado
+            }
+            Command cmd = program.getCommand(i);
+            byte op = program.getOpcode(i);
+            try {
+                if (op == Program.OP_BRANCH
+                        || (op == Program.OP_COMMAND && cmd.getClass() == Procedure.class)) {
+                    nodes[i] = parser.parse(((Procedure) cmd).getProcedure());
+                    fused[i] = true;
+                } else if (op == Program.OP_END
+                        || (op == Program.OP_COMMAND && cmd.getClass() == Declaration.class)) {
+                    fused[i] = true;
+                }
+            } catch (ParseException e) {
+                //a instrução continua sendo executada pelo caminho normal
+            }
+        }
+    }
+
+    /**
+     * Executa em sequência as instruções compiladas a partir da atual.
+     *
+     * @return false se o limite de instruções por tick foi atingido
+     */
+    private boolean runFused(byte[] traps) throws ExecutionException {
+        int budget = FUSED_BUDGET;
+        //instruções com pontos de parada voltam para o caminho normal
+        while (pc < program.size() && fused[pc] && traps[pc] == 0) {
+            if (budget-- == 0) {
+                return false;
+            }
+            steps++;
+            int at = pc;
+            long start = (profile != null) ? System.nanoTime() : 0;
+            switch (program.getOpcode(pc)) {
+                case Program.OP_COMMAND:
+                    if (nodes[pc] != null) {
+                        evaluateNode(pc);
+                    } else {
+                        program.getCommand(pc).begin(context);
+                    }
+                    pc = program.getJump(pc);
+                    break;
+                case Program.OP_BRANCH:
+                    CompiledExpression c = conditions[pc];
+                    if ((c != null) ? testFused(c, pc) : isTrue(evaluateNode(pc))) {
+                        pc++;
+                    } else {
+                        pc = program.getJump(pc);
+                    }
+                    break;
+                case Program.OP_END:
+                    resetVariableScope(program.getScope(pc));
+                    pc = program.getJump(pc);
+                    break;
+            }
+            if (profile != null) {
+                profileStep(at, start);
+            }
+        }
+        return true;
+    }
+
+    private boolean testFused(CompiledExpression c, int pc) {
+        try {
+            return c.test();
+        } catch (CompiledExpression.NotNumberException e) {
+            return isTrue(evaluateNode(pc));
+        }
+    }
+
+    /**
+     * Avalia a expressão pré-compilada de uma instrução. Como no caminho
+     * normal (parseExpression), um erro de avaliação resulta em null (uma
+     * condição falsa) em vez de interromper o programa.
+     */
+    private Object evaluateNode(int pc) {
+        try {
+            return parser.evaluate(nodes[pc]);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    static boolean isTrue(Object o) {
+        if (o instanceof Number) {
+            double d = ((Number) o).doubleValue();
+            return (d != 0 && !Double.isNaN(d));
+        }
+        return false;
+    }
+
+    //remove as variaveis definidas dentro do bloco que terminou
+    private void resetVariableScope(String[] scope) {
+        SymbolTable st = parser.getSymbolTable();
+        for (String varName : scope) {
+            Variable v = st.getVar(varName);
+            if (v != null) {
+                v.setValidValue(false);
+            }
+        }
+    }
+
+    /**
+     * Executa o comando atual até o fim, bloqueando a thread enquanto ele
+     * espera.
+     *
+     * @return false se o programa terminou ou ocorreu um erro
+     */
+    public boolean step() {
+        while (tick()) {
+            if (!waiting || paused) {
+                return true;
+            }
+            if (clock.isVirtualTime() && !clock.isPaused()) {
+                continue; //tick avança o tempo ou acusa a espera sem timer
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ex) {
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Indica se o programa foi interrompido porque, em tempo virtual, o
+     * comando atual esperava algo que não é um timer.
+     */
+    public boolean isStalled() {
+        return stalled;
+    }
+
+    /**
+     * Indica se o comando atual ainda não terminou.
+     */
+    public boolean isWaiting() {
+        return waiting;
+    }
+
+    /**
+     * Obtem o erro que interrompeu o programa, ou null.
+     */
+    public ExecutionException getError() {
+        return error;
+    }
+
+    /**
+     * Obtem o comando que está sendo executado.
+     */
+    public Command getCurrentCommand() {
+        if (program == null || pc >= program.size()) {
+            return null;
+        }
+        return program.getCommand(pc);
+    }
+
+    /**
+     * Obtem o relógio usado pelos comandos. Veja
+     * {@link Clock#setVirtualTime(boolean)} para executar sem esperar o tempo
+     * real.
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Obtem o contexto (parser, robô e relógio) passado aos comandos do
+     * programa.
+     */
+    public ExecutionContext getContext() {
+        return context;
+    }
+
+    /**
+     * Obtem o programa linearizado da função principal.
+     */
+    public Program getProgram() {
+        return program;
+    }
+
+    /**
+     * Obtem o numero de instruções executadas desde o último reset.
+     */
+    public long getSteps() {
+        return steps;
+    }
+
     @Override
     public void run() {
+        while (!isInterrupted()) {
+            if (paused) {
+                synchronized (pauseLock) {
+                    try {
+                        while (paused) {
+                            pauseLock.wait();
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            } else if (!step()) {
+                break;
+            }
+        }
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,223 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.interpreter;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import robotinterface.algorithm.procedure.Declaration;
+import robotinterface.algorithm.procedure.Function;
+import robotinterface.algorithm.procedure.Procedure;
+import robotinterface.algorithm.procedure.While;
+import robotinterface.plugins.cmdpack.begginer.Wait;
+import robotinterface.robot.Robot;
+
+/**
+ * Executa vários interpretadores em um pequeno conjunto de threads
+ * compartilhadas, avançando cada programa a uma taxa fixa com
+ * {@link Interpreter#tick()}. Um comando que espera (ex. {@link Wait}) não
+ * ocupa nenhuma thread enquanto o seu tempo não chega.
+ */
+public class InterpreterScheduler {
+
+    private class Task implements Runnable {
+
+        private final Interpreter interpreter;
+        private volatile ScheduledFuture<?> future;
+        private volatile boolean done = false;
+
+        private Task(Interpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+
+        @Override
+        public void run() {
+            if (done) {
+                return;
+            }
+            ticks.incrementAndGet();
+            boolean running;
+            try {
+                running = interpreter.tick();
+            } catch (RuntimeException e) {
+                //uma exceção cancelaria a tarefa periódica sem removê-la
+                System.err.println("Erro no programa de " + interpreter.getName() + ":");
+                e.printStackTrace();
+                running = false;
+            }
+            if (!running) {
+                done = true;
+                finish(this);
+            }
+        }
+    }
+    private final ScheduledThreadPoolExecutor executor;
+    private final ConcurrentHashMap<Interpreter, Task> tasks;
+    private final AtomicLong ticks;
+    private final long period;
+
+    /**
+     * @param carriers numero de threads compartilhadas
+     * @param rate numero de vezes por segundo que cada programa é avançado
+     */
+    public InterpreterScheduler(int carriers, double rate) {
+        if (carriers <= 0 || rate <= 0) {
+            throw new IllegalArgumentException("carriers <= 0 || rate <= 0");
+        }
+        executor = new ScheduledThreadPoolExecutor(carriers, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "InterpreterScheduler::" + count++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        tasks = new ConcurrentHashMap<>();
+        ticks = new AtomicLong();
+        period = (long) (1000000000 / rate);
+    }
+
+    public InterpreterScheduler(double rate) {
+        this(Runtime.getRuntime().availableProcessors(), rate);
+    }
+
+    /**
+     * Começa a executar o programa de um interpretador.
+     */
+    public void submit(Interpreter i) {
+        Task t = new Task(i);
+        if (tasks.putIfAbsent(i, t) != null) {
+            return;
+        }
+        t.future = executor.scheduleAtFixedRate(t, 0, period, TimeUnit.NANOSECONDS);
+        if (t.done) {
+            t.future.cancel(false);
+        }
+    }
+
+    /**
+     * Interrompe a execução do programa de um interpretador.
+     */
+    public void cancel(Interpreter i) {
+        Task t = tasks.get(i);
+        if (t != null) {
+            t.done = true;
+            finish(t);
+        }
+    }
+
+    private void finish(Task t) {
+        tasks.remove(t.interpreter, t);
+        if (t.future != null) {
+            t.future.cancel(false);
+        }
+    }
+
+    /**
+     * Obtem o numero de programas que ainda estão sendo executados.
+     */
+    public int getRunningCount() {
+        return tasks.size();
+    }
+
+    /**
+     * Obtem o numero total de vezes que algum programa foi avançado.
+     */
+    public long getTickCount() {
+        return ticks.get();
+    }
+
+    public void shutdown() {
+        for (Task t : tasks.values()) {
+            t.done = true;
+        }
+        tasks.clear();
+        executor.shutdownNow();
+    }
+
+    private static Function createBenchmarkFunction() {
+        Function func = new Function("main", null);
+        func.add(new Declaration("i", 0));
+        While loop = new While("1");
+        loop.add(new Procedure("i = i + 1"));
+        loop.add(new Wait(20));
+        func.add(loop);
+        return func;
+    }
+
+    /**
+     * Mede quantos programas simultâneos podem ser avançados na taxa
+     * desejada.
+     *
+     * Argumentos (opcionais): taxa (Hz), numero de threads e duração de cada
+     * rodada (ms).
+     */
+    public static void main(String[] args) throws InterruptedException {
+        double rate = (args.length > 0) ? Double.parseDouble(args[0]) : 100;
+        int carriers = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long duration = (args.length > 2) ? Long.parseLong(args[2]) : 2000;
+
+        System.out.println("taxa: " + rate + " Hz, threads: " + carriers + ", duração: " + duration + " ms");
+        int best = 0;
+        for (int n = 16; n <= 16384; n *= 2) {
+            ArrayList<Interpreter> interpreters = new ArrayList<>();
+            for (int k = 0; k < n; k++) {
+                Interpreter i = new Interpreter(new Robot());
+                i.setMainFunction(createBenchmarkFunction());
+                interpreters.add(i);
+            }
+
+            InterpreterScheduler s = new InterpreterScheduler(carriers, rate);
+            long start = System.nanoTime();
+            for (Interpreter i : interpreters) {
+                s.submit(i);
+            }
+            Thread.sleep(duration);
+            long ticks = s.getTickCount();
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            s.shutdown();
+
+            long steps = 0;
+            for (Interpreter i : interpreters) {
+                steps += i.getSteps();
+            }
+            double achieved = ticks / elapsed / n;
+            System.out.printf("%6d programas: %8.1f Hz por programa, %10.0f comandos/s%n", n, achieved, steps / elapsed);
+            if (achieved < rate * 0.95) {
+                break;
+            }
+            best = n;
+        }
+        System.out.println("máximo de programas na taxa desejada: " + best);
+    }
+}
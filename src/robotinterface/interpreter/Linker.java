@@ -0,0 +1,130 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.interpreter;
+
+import java.util.ArrayList;
+import robotinterface.algorithm.Command;
+import robotinterface.algorithm.procedure.Block;
+import robotinterface.algorithm.procedure.Declaration;
+import robotinterface.algorithm.procedure.Function;
+import robotinterface.algorithm.procedure.If;
+import robotinterface.algorithm.procedure.While;
+
+/**
+ * Converte a árvore de comandos de uma {@link Function} em um
+ * {@link Program} linear.
+ *
+ * <pre>
+ * While:  h: BRANCH while  -> x     If:  BRANCH if       -> f
+ *            corpo...                    verdadeiro...
+ *            END    while  -> h          END    blocoV   -> x
+ *         x:                          f: falso...
+ *                                        END    blocoF   -> x
+ *                                     x:
+ * </pre>
+ */
+public class Linker {
+
+    private final ArrayList<Command> commands = new ArrayList<>();
+    private final ArrayList<Byte> opcodes = new ArrayList<>();
+    private final ArrayList<Integer> jumps = new ArrayList<>();
+    private final ArrayList<String[]> scopes = new ArrayList<>();
+
+    private Linker() {
+    }
+
+    public static Program link(Function f) {
+        Linker l = new Linker();
+        l.linkBlock(f);
+        int size = l.commands.size();
+        byte[] opcodes = new byte[size];
+        int[] jumps = new int[size];
+        for (int i = 0; i < size; i++) {
+            opcodes[i] = l.opcodes.get(i);
+            jumps[i] = l.jumps.get(i);
+        }
+        return new Program(l.commands.toArray(new Command[size]), opcodes, jumps,
+                l.scopes.toArray(new String[size][]));
+    }
+
+    private int emit(byte opcode, Command c, String[] scope) {
+        int pc = commands.size();
+        commands.add(c);
+        opcodes.add(opcode);
+        jumps.add(pc + 1);
+        scopes.add(scope);
+        return pc;
+    }
+
+    private void setJump(int pc, int target) {
+        jumps.set(pc, target);
+    }
+
+    private void linkBody(Block b) {
+        Command it = b.get(0);
+        while (it != null && !(it instanceof Block.BlockEnd)) {
+            linkCommand(it);
+            it = it.getNext();
+        }
+    }
+
+    private int linkBlock(Block b) {
+        linkBody(b);
+        return emit(Program.OP_END, b, getScope(b));
+    }
+
+    private void linkCommand(Command c) {
+        if (c instanceof While) {
+            int head = emit(Program.OP_BRANCH, c, null);
+            int end = linkBlock((Block) c);
+            setJump(end, head);
+            setJump(head, commands.size());
+        } else if (c instanceof If) {
+            If i = (If) c;
+            int head = emit(Program.OP_BRANCH, c, null);
+            int endTrue = linkBlock(i.getBlockTrue());
+            setJump(head, commands.size());
+            linkBlock(i.getBlockFalse());
+            setJump(endTrue, commands.size());
+        } else if (c instanceof Block) {
+            linkBlock((Block) c);
+        } else {
+            emit(Program.OP_COMMAND, c, null);
+        }
+    }
+
+    private static String[] getScope(Block b) {
+        ArrayList<String> names = new ArrayList<>();
+        Command it = b.get(0);
+        while (it != null) {
+            if (it instanceof Declaration) {
+                names.addAll(((Declaration) it).getVariableNames());
+            }
+            it = it.getNext();
+        }
+        return names.toArray(new String[names.size()]);
+    }
+}
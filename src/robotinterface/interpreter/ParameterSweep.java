@@ -0,0 +1,313 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.interpreter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import org.nfunk.jep.JEP;
+import robotinterface.algorithm.Command;
+import robotinterface.algorithm.procedure.Block;
+import robotinterface.algorithm.procedure.Declaration;
+import robotinterface.algorithm.procedure.Function;
+import robotinterface.algorithm.procedure.If;
+import robotinterface.algorithm.procedure.Procedure;
+import robotinterface.algorithm.procedure.While;
+import robotinterface.plugins.cmdpack.begginer.Move;
+import robotinterface.plugins.cmdpack.begginer.Wait;
+import robotinterface.plugins.cmdpack.util.PrintString;
+import robotinterface.robot.Robot;
+
+/**
+ * Busca em grade sobre os valores iniciais das variáveis declaradas em uma
+ * função: cada combinação é executada em um robô simulado com tempo virtual
+ * ({@link BatchRunner}), em paralelo, e classificada por uma expressão de
+ * aptidão.
+ *
+ * A expressão de aptidão pode usar <code>x</code>, <code>y</code>,
+ * <code>theta</code>, <code>steps</code>, <code>time</code> (tempo simulado
+ * em segundos), <code>done</code> (1 se o programa terminou) e os
+ * parâmetros variados. Quanto maior, melhor.
+ */
+public class ParameterSweep {
+
+    /**
+     * Cria uma nova cópia da função a cada execução (os comandos guardam
+     * estado durante a execução).
+     */
+    public interface FunctionFactory {
+
+        public Function create();
+    }
+
+    /**
+     * Uma combinação de parâmetros e o resultado da sua execução.
+     */
+    public static class Trial {
+
+        public final double[] values;
+        public final BatchRunner.Result result;
+        public final double fitness;
+
+        private Trial(double[] values, BatchRunner.Result result, double fitness) {
+            this.values = values;
+            this.result = result;
+            this.fitness = fitness;
+        }
+    }
+    //numero de combinações executadas em sequência por uma tarefa
+    private static final int LEAF_SIZE = 4;
+    private final FunctionFactory factory;
+    private final ArrayList<String> parameters = new ArrayList<>();
+    private final ArrayList<double[]> ranges = new ArrayList<>();
+    private String fitness = "0";
+    private long maxSimTime = 600000;
+    private long maxSteps = 10000000;
+
+    public ParameterSweep(FunctionFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Varia o valor inicial de uma variável de <code>from</code> até
+     * <code>to</code> (inclusive) com passo <code>step</code>.
+     */
+    public void addParameter(String var, double from, double to, double step) {
+        if (step <= 0 || to < from) {
+            throw new IllegalArgumentException("step <= 0 || to < from");
+        }
+        int n = (int) Math.floor((to - from) / step + 1e-9) + 1;
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = from + i * step;
+        }
+        addParameter(var, values);
+    }
+
+    /**
+     * Varia o valor inicial de uma variável entre os valores dados.
+     */
+    public void addParameter(String var, double... values) {
+        parameters.add(var);
+        ranges.add(values.clone());
+    }
+
+    public void setFitness(String expression) {
+        fitness = expression;
+    }
+
+    public void setMaxSimTime(long milis) {
+        maxSimTime = milis;
+    }
+
+    public void setMaxSteps(long steps) {
+        maxSteps = steps;
+    }
+
+    /**
+     * Obtem o numero de combinações.
+     */
+    public int size() {
+        int n = 1;
+        for (double[] r : ranges) {
+            n *= r.length;
+        }
+        return n;
+    }
+
+    /**
+     * Executa todas as combinações.
+     *
+     * @return as combinações, da mais apta para a menos apta
+     */
+    public List<Trial> run(ForkJoinPool pool) {
+        List<Trial> trials = pool.invoke(new SweepTask(0, size()));
+        Collections.sort(trials, new Comparator<Trial>() {
+            @Override
+            public int compare(Trial a, Trial b) {
+                return Double.compare(b.fitness, a.fitness);
+            }
+        });
+        return trials;
+    }
+
+    /**
+     * Executa todas as combinações em um pool próprio, encerrado ao final.
+     */
+    public List<Trial> run() {
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            return run(pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private class SweepTask extends RecursiveTask<List<Trial>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+
+        private SweepTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Trial> compute() {
+            if (to - from <= LEAF_SIZE) {
+                ArrayList<Trial> trials = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    trials.add(runTrial(i));
+                }
+                return trials;
+            }
+            int mid = (from + to) >>> 1;
+            SweepTask left = new SweepTask(from, mid);
+            left.fork();
+            List<Trial> trials = new SweepTask(mid, to).compute();
+            trials.addAll(left.join());
+            return trials;
+        }
+    }
+
+    private Trial runTrial(int index) {
+        //combinação index em base mista
+        double[] values = new double[parameters.size()];
+        for (int p = 0; p < values.length; p++) {
+            double[] r = ranges.get(p);
+            values[p] = r[index % r.length];
+            index /= r.length;
+        }
+
+        Function f;
+        //Function usa tabelas estáticas
+        synchronized (ParameterSweep.class) {
+            f = factory.create();
+        }
+        for (int p = 0; p < values.length; p++) {
+            if (!setInitialValue(f, parameters.get(p), values[p])) {
+                throw new IllegalArgumentException("Variável não declarada: " + parameters.get(p));
+            }
+        }
+
+        BatchRunner.Result result = BatchRunner.run("sweep", 0, f, BatchRunner.createSimulatedRobot(), maxSimTime, maxSteps);
+        return new Trial(values, result, evaluateFitness(values, result));
+    }
+
+    private double evaluateFitness(double[] values, BatchRunner.Result r) {
+        JEP parser = new JEP();
+        parser.addStandardFunctions();
+        parser.addStandardConstants();
+        parser.setImplicitMul(true);
+        parser.addVariable("x", r.x);
+        parser.addVariable("y", r.y);
+        parser.addVariable("theta", r.theta);
+        parser.addVariable("steps", r.steps);
+        parser.addVariable("time", r.simMillis / 1000.0);
+        parser.addVariable("done", r.status.equals("done") ? 1 : 0);
+        for (int p = 0; p < values.length; p++) {
+            parser.addVariable(parameters.get(p), values[p]);
+        }
+        parser.parseExpression(fitness);
+        if (parser.hasError()) {
+            throw new IllegalArgumentException(parser.getErrorInfo());
+        }
+        return parser.getValue();
+    }
+
+    /**
+     * Altera o valor inicial de todas as declarações de uma variável dentro
+     * de um bloco (e de seus blocos internos).
+     *
+     * @return true se alguma declaração foi alterada
+     */
+    public static boolean setInitialValue(Block b, String var, Object value) {
+        boolean found = false;
+        for (int i = 0; i < b.size(); i++) {
+            Command c = b.get(i);
+            if (c instanceof Declaration) {
+                found |= ((Declaration) c).setVariableValue(var, value);
+            } else if (c instanceof Block) {
+                found |= setInitialValue((Block) c, var, value);
+            } else if (c instanceof If) {
+                found |= setInitialValue(((If) c).getBlockTrue(), var, value);
+                found |= setInitialValue(((If) c).getBlockFalse(), var, value);
+            }
+        }
+        return found;
+    }
+
+    private static Function createDemoFunction() {
+        Function func = new Function("main", null);
+        func.add(new Declaration("laps", 1));
+        func.add(new Declaration("dec", 1));
+        While loop = new While("laps > 0");
+        loop.add(new Move(70, 70));
+        loop.add(new Wait(1000));
+        loop.add(new Move(0, 0));
+        loop.add(new Procedure("laps = laps - dec"));
+        func.add(loop);
+        return func;
+    }
+
+    /**
+     * Exemplo: procura as combinações de voltas e decremento cuja missão dura
+     * mais perto de 30s.
+     */
+    public static void main(String[] args) {
+        PrintString.setDefaultOutput(new PrintString.Output() {
+            @Override
+            public void print(Robot robot, CharSequence str) {
+            }
+        });
+        ParameterSweep sweep = new ParameterSweep(new FunctionFactory() {
+            @Override
+            public Function create() {
+                return createDemoFunction();
+            }
+        });
+        sweep.addParameter("laps", 1, 60, 1);
+        sweep.addParameter("dec", 1, 3, 1);
+        sweep.setFitness("-abs(time - 30)");
+
+        long start = System.nanoTime();
+        List<Trial> trials = sweep.run();
+        double wall = (System.nanoTime() - start) / 1e6;
+
+        System.out.printf(Locale.US, "%d combinações em %.1f ms%n", trials.size(), wall);
+        for (int i = 0; i < 5 && i < trials.size(); i++) {
+            Trial t = trials.get(i);
+            System.out.printf(Locale.US, "laps=%.0f dec=%.0f -> aptidão %.3f (%s)%n",
+                    t.values[0], t.values[1], t.fitness, t.result.toCSV());
+        }
+    }
+}
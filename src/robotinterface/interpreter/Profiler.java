@@ -0,0 +1,257 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.interpreter;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import robotinterface.algorithm.Command;
+import robotinterface.algorithm.procedure.Declaration;
+import robotinterface.algorithm.procedure.Function;
+import robotinterface.algorithm.procedure.If;
+import robotinterface.algorithm.procedure.Procedure;
+import robotinterface.algorithm.procedure.While;
+import robotinterface.plugins.cmdpack.begginer.Move;
+import robotinterface.plugins.cmdpack.begginer.Wait;
+
+/**
+ * Tempo gasto em cada comando de um programa, indexado por
+ * {@link Command#getID()}.
+ *
+ * Para cada comando são registrados o numero de execuções, o tempo em
+ * <code>begin</code>, em <code>perform</code> e nas instruções de controle
+ * (condições e fins de bloco), o tempo de espera (entre o inicio e o fim do
+ * comando, fora de <code>begin</code>/<code>perform</code>) e o tempo do
+ * relógio da missão. Veja {@link Interpreter#setProfiler(Profiler)}.
+ */
+public class Profiler {
+
+    public static class Entry {
+
+        private final Command command;
+        //escritos apenas pela thread do interpretador, lidos pela interface
+        volatile long count;
+        volatile long beginNanos;
+        volatile long performNanos;
+        volatile long stepNanos;
+        volatile long waitNanos;
+        volatile long clockMillis;
+
+        private Entry(Command command) {
+            this.command = command;
+        }
+
+        public Command getCommand() {
+            return command;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getBeginNanos() {
+            return beginNanos;
+        }
+
+        public long getPerformNanos() {
+            return performNanos;
+        }
+
+        public long getStepNanos() {
+            return stepNanos;
+        }
+
+        public long getWaitNanos() {
+            return waitNanos;
+        }
+
+        /**
+         * Tempo do relógio do interpretador (real ou virtual) entre o inicio
+         * e o fim do comando.
+         */
+        public long getClockMillis() {
+            return clockMillis;
+        }
+
+        public long getTotalNanos() {
+            return beginNanos + performNanos + stepNanos + waitNanos;
+        }
+    }
+    private final HashMap<Integer, Entry> entries = new HashMap<>();
+
+    /**
+     * Obtem (ou cria) o registro de um comando.
+     */
+    public synchronized Entry getEntry(Command c) {
+        Entry e = entries.get(c.getID());
+        if (e == null) {
+            e = new Entry(c);
+            entries.put(c.getID(), e);
+        }
+        return e;
+    }
+
+    public synchronized Entry get(int id) {
+        return entries.get(id);
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Zera os tempos mantendo os registros existentes.
+     */
+    public synchronized void reset() {
+        for (Entry e : entries.values()) {
+            e.count = 0;
+            e.beginNanos = 0;
+            e.performNanos = 0;
+            e.stepNanos = 0;
+            e.waitNanos = 0;
+            e.clockMillis = 0;
+        }
+    }
+
+    /**
+     * Obtem o tempo total do comando mais demorado.
+     */
+    public synchronized long getMaxTotalNanos() {
+        long max = 0;
+        for (Entry i : entries.values()) {
+            max = Math.max(max, i.getTotalNanos());
+        }
+        return max;
+    }
+
+    /**
+     * Obtem o tempo do comando relativo ao comando mais demorado, entre 0 e
+     * 1.
+     */
+    public double getHeat(Command c) {
+        return getHeat(c, getMaxTotalNanos());
+    }
+
+    /**
+     * Obtem o tempo do comando relativo a <code>max</code>, entre 0 e 1
+     * (usado para colorir o fluxograma: <code>max</code> é obtido uma vez
+     * por quadro com {@link #getMaxTotalNanos()}).
+     */
+    public synchronized double getHeat(Command c, long max) {
+        Entry e = entries.get(c.getID());
+        if (e == null || max <= 0) {
+            return 0;
+        }
+        return Math.min(1, (double) e.getTotalNanos() / max);
+    }
+
+    /**
+     * Exporta as pilhas de comandos (Function;Block;While;If;Comando) no
+     * formato "collapsed" usado para gerar flame graphs, uma pilha por
+     * linha seguida do tempo próprio do comando.
+     *
+     * @param clockTime usa o tempo do relógio da missão (ms) em vez do tempo
+     * de execução (µs)
+     */
+    public synchronized void writeCollapsed(Writer out, boolean clockTime) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        ArrayList<Command> stack = new ArrayList<>();
+        for (Entry e : entries.values()) {
+            long value = (clockTime) ? e.clockMillis : e.getTotalNanos() / 1000;
+            if (value <= 0) {
+                continue;
+            }
+            stack.clear();
+            for (Command c = e.command; c != null; c = c.getParent()) {
+                stack.add(c);
+            }
+            sb.setLength(0);
+            for (int i = stack.size() - 1; i >= 0; i--) {
+                sb.append(stack.get(i).getCommandName());
+                sb.append((i > 0) ? ';' : ' ');
+            }
+            sb.append(value).append('\n');
+            out.write(sb.toString());
+        }
+        out.flush();
+    }
+
+    /**
+     * Exibe uma tabela com os comandos ordenados pelo tempo total.
+     */
+    public void print(PrintStream out) {
+        List<Entry> list = getEntries();
+        Collections.sort(list, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Long.compare(b.getTotalNanos(), a.getTotalNanos());
+            }
+        });
+        out.printf(Locale.US, "%-20s %10s %10s %10s %10s %10s %10s%n",
+                "comando", "execuções", "begin(ms)", "perform", "controle", "espera", "relógio");
+        for (Entry e : list) {
+            out.printf(Locale.US, "%-20s %10d %10.3f %10.3f %10.3f %10.3f %10d%n",
+                    e.command.getCommandName(), e.count, e.beginNanos / 1e6, e.performNanos / 1e6,
+                    e.stepNanos / 1e6, e.waitNanos / 1e6, e.clockMillis);
+        }
+    }
+
+    /**
+     * Executa um programa de exemplo em tempo virtual e exibe o perfil e as
+     * pilhas para flame graph (tempo da missão).
+     */
+    public static void main(String[] args) throws IOException {
+        Function func = new Function("main", null);
+        func.add(new Declaration("i", 200));
+        While loop = new While("i > 0");
+        If turn = new If("i % 10 == 0");
+        turn.addTrue(new Move(-70, 70));
+        turn.addTrue(new Wait(300));
+        turn.addFalse(new Move(70, 70));
+        turn.addFalse(new Wait(100));
+        loop.add(turn);
+        loop.add(new Procedure("i = i - 1"));
+        func.add(loop);
+
+        Interpreter interpreter = new Interpreter(BatchRunner.createSimulatedRobot());
+        interpreter.getClock().setVirtualTime(true);
+        Profiler profiler = new Profiler();
+        interpreter.setProfiler(profiler);
+        interpreter.setMainFunction(func);
+        while (interpreter.tick());
+
+        profiler.print(System.out);
+        System.out.println();
+        profiler.writeCollapsed(new OutputStreamWriter(System.out), true);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.interpreter;
+
+import robotinterface.algorithm.Command;
+
+/**
+ * Programa linearizado pelo {@link Linker}: um vetor de instruções com os
+ * destinos de salto já calculados, executado pelo {@link Interpreter} com um
+ * contador de programa inteiro.
+ */
+public class Program {
+
+    /**
+     * Executa o comando (begin/perform) e segue para o destino.
+     */
+    public static final byte OP_COMMAND = 0;
+    /**
+     * Avalia a condição do comando (If/While): segue para a próxima instrução
+     * se for verdadeira ou para o destino se for falsa.
+     */
+    public static final byte OP_BRANCH = 1;
+    /**
+     * Final de bloco: remove as variáveis declaradas no bloco e segue para o
+     * destino.
+     */
+    public static final byte OP_END = 2;
+    private final Command[] commands;
+    private final byte[] opcodes;
+    private final int[] jumps;
+    private final String[][] scopes;
+
+    Program(Command[] commands, byte[] opcodes, int[] jumps, String[][] scopes) {
+        this.commands = commands;
+        this.opcodes = opcodes;
+        this.jumps = jumps;
+        this.scopes = scopes;
+    }
+
+    /**
+     * Obtem o numero de instruções do programa.
+     */
+    public final int size() {
+        return commands.length;
+    }
+
+    /**
+     * Obtem o comando da instrução (para OP_END, o bloco que termina).
+     */
+    public final Command getCommand(int pc) {
+        return commands[pc];
+    }
+
+    public final byte getOpcode(int pc) {
+        return opcodes[pc];
+    }
+
+    public final int getJump(int pc) {
+        return jumps[pc];
+    }
+
+    /**
+     * Obtem as variáveis declaradas diretamente no bloco que termina em
+     * <code>pc</code> (somente OP_END).
+     */
+    public final String[] getScope(int pc) {
+        return scopes[pc];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int pc = 0; pc < commands.length; pc++) {
+            sb.append(pc).append(": ");
+            switch (opcodes[pc]) {
+                case OP_COMMAND:
+                    sb.append("CMD    ");
+                    break;
+                case OP_BRANCH:
+                    sb.append("BRANCH ");
+                    break;
+                case OP_END:
+                    sb.append("END    ");
+                    break;
+            }
+            sb.append(commands[pc].getCommandName()).append(" -> ").append(jumps[pc]).append('\n');
+        }
+        return sb.toString();
+    }
+}
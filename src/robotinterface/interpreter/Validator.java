@@ -0,0 +1,330 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.interpreter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import org.nfunk.jep.ASTFunNode;
+import org.nfunk.jep.ASTVarNode;
+import org.nfunk.jep.JEP;
+import org.nfunk.jep.Node;
+import org.nfunk.jep.ParseException;
+import robotinterface.algorithm.Command;
+import robotinterface.algorithm.io.FunctionSerializer;
+import robotinterface.algorithm.procedure.Block;
+import robotinterface.algorithm.procedure.Declaration;
+import robotinterface.algorithm.procedure.Function;
+import robotinterface.algorithm.procedure.If;
+import robotinterface.algorithm.procedure.Procedure;
+import robotinterface.algorithm.procedure.While;
+import robotinterface.plugins.cmdpack.begginer.Move;
+import robotinterface.plugins.cmdpack.begginer.ReadDevice;
+import robotinterface.plugins.cmdpack.begginer.Wait;
+import robotinterface.plugins.cmdpack.util.PrintString;
+import robotinterface.robot.Robot;
+import robotinterface.robot.device.Compass;
+import robotinterface.robot.device.Device;
+import robotinterface.robot.device.HBridge;
+
+/**
+ * Verificação de um programa antes da execução.
+ *
+ * Encontra expressões inválidas, variáveis usadas fora do escopo,
+ * declarações de variáveis já existentes (que falhariam em tempo de execução
+ * com "Variable already exists!"), código inalcançável por condições
+ * constantes e comandos que usam dispositivos ausentes no robô.
+ */
+public class Validator {
+
+    public static class Issue {
+
+        public final boolean error;
+        public final Command command;
+        public final String message;
+
+        private Issue(boolean error, Command command, String message) {
+            this.error = error;
+            this.command = command;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            String name = command.getClass().getSimpleName();
+            if (command.getClass() == Procedure.class || command instanceof If || command instanceof While) {
+                name += " \"" + ((Procedure) command).getProcedure() + "\"";
+            }
+            return ((error) ? "erro: " : "aviso: ") + name + ": " + message;
+        }
+    }
+    private final Robot robot;
+    private final JEP parser;
+    private final HashSet<String> constants = new HashSet<>();
+    private final ArrayList<String> visible = new ArrayList<>();
+    private final ArrayList<Issue> issues = new ArrayList<>();
+    private int loops;
+
+    /**
+     * @param robot robô usado na verificação dos dispositivos (pode ser nulo)
+     */
+    public Validator(Robot robot) {
+        this.robot = robot;
+        //mesma configuração do interpretador, mas aceitando variáveis não
+        //declaradas para que elas sejam encontradas na árvore
+        parser = new JEP();
+        parser.addStandardFunctions();
+        parser.setImplicitMul(true);
+        parser.addStandardConstants();
+        parser.setAllowAssignment(true);
+        for (Object name : parser.getSymbolTable().keySet()) {
+            constants.add((String) name);
+        }
+        parser.setAllowUndeclared(true);
+    }
+
+    public synchronized List<Issue> validate(Function f) {
+        issues.clear();
+        visible.clear();
+        visible.addAll(constants);
+        loops = 0;
+        checkBlock(f);
+        return new ArrayList<>(issues);
+    }
+
+    public static boolean hasErrors(List<Issue> issues) {
+        for (Issue i : issues) {
+            if (i.error) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void error(Command c, String message) {
+        issues.add(new Issue(true, c, message));
+    }
+
+    private void warning(Command c, String message) {
+        issues.add(new Issue(false, c, message));
+    }
+
+    private void checkBlock(Block b) {
+        int scope = visible.size();
+        boolean reachable = true;
+        int size = b.size() - 1; //sem o final do bloco
+        for (int i = 0; i < size; i++) {
+            Command c = b.get(i);
+            if (!reachable) {
+                warning(c, "comando inalcançável: o laço anterior nunca termina");
+                reachable = true; //avisa somente uma vez
+            }
+            if (!checkCommand(c)) {
+                reachable = false;
+            }
+        }
+        //fim do escopo do bloco
+        while (visible.size() > scope) {
+            visible.remove(visible.size() - 1);
+        }
+    }
+
+    /**
+     * @return false se o comando nunca termina
+     */
+    private boolean checkCommand(Command c) {
+        if (c instanceof Declaration) {
+            checkDeclaration((Declaration) c);
+        } else if (c instanceof While) {
+            While w = (While) c;
+            Boolean cond = checkCondition(w);
+            if (cond != null && !cond && w.size() > 1) {
+                warning(w.get(0), "comando inalcançável: a condição do laço é sempre falsa");
+            }
+            loops++;
+            checkBlock(w);
+            loops--;
+            return (cond == null || !cond);
+        } else if (c instanceof If) {
+            If i = (If) c;
+            Boolean cond = checkCondition(i);
+            if (cond != null) {
+                Block dead = (cond) ? i.getBlockFalse() : i.getBlockTrue();
+                if (dead.size() > 1) {
+                    warning(dead.get(0), "comando inalcançável: a condição é sempre " + ((cond) ? "verdadeira" : "falsa"));
+                }
+            }
+            checkBlock(i.getBlockTrue());
+            checkBlock(i.getBlockFalse());
+        } else if (c instanceof Block) {
+            checkBlock((Block) c);
+        } else if (c instanceof ReadDevice) {
+            ReadDevice r = (ReadDevice) c;
+            checkVariable(c, r.getVariable());
+            checkDevice(c, r.getDeviceType());
+        } else if (c instanceof PrintString) {
+            for (String var : ((PrintString) c).getVariableNames()) {
+                if (!visible.contains(var)) {
+                    warning(c, "variável não declarada: " + var + " (será exibida como ¿" + var + "?)");
+                }
+            }
+        } else if (c instanceof Move) {
+            checkDevice(c, HBridge.class);
+        } else if (c.getClass() == Procedure.class) {
+            String expr = ((Procedure) c).getProcedure();
+            if (expr != null && !expr.trim().isEmpty()) {
+                parse((Procedure) c);
+            }
+        }
+        return true;
+    }
+
+    private void checkDeclaration(Declaration d) {
+        HashSet<String> names = new HashSet<>();
+        for (String name : d.getVariableNames()) {
+            if (visible.contains(name) || !names.add(name)) {
+                error(d, "a variável " + name + " já existe"
+                        + ((loops > 0) ? " (falha na primeira iteração do laço)" : "")
+                        + ": \"Variable already exists!\"");
+            }
+        }
+        visible.addAll(d.getVariableNames());
+    }
+
+    private void checkVariable(Command c, String var) {
+        if (var == null) {
+            error(c, "variável não definida");
+        } else if (!visible.contains(var)) {
+            error(c, "variável não declarada: " + var);
+        }
+    }
+
+    private void checkDevice(Command c, Class<? extends Device> type) {
+        if (type == null) {
+            error(c, "dispositivo não definido");
+        } else if (robot != null && robot.getDevice(type) == null) {
+            error(c, "o robô não possui o dispositivo " + type.getSimpleName());
+        }
+    }
+
+    /**
+     * @return o valor da condição se ela for constante, ou null
+     */
+    private Boolean checkCondition(Procedure p) {
+        String expr = p.getProcedure();
+        if (expr == null || expr.trim().isEmpty()) {
+            warning(p, "condição vazia (sempre falsa)");
+            return false;
+        }
+        Node node = parse(p);
+        if (node == null) {
+            return null;
+        }
+        HashSet<String> vars = new HashSet<>();
+        if (collect(node, vars) || !constants.containsAll(vars)) {
+            return null;
+        }
+        try {
+            return Interpreter.isTrue(parser.evaluate(node));
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private Node parse(Procedure p) {
+        Node node;
+        try {
+            node = parser.parse(p.getProcedure());
+        } catch (ParseException | RuntimeException e) {
+            String msg = String.valueOf(e.getMessage());
+            int end = msg.indexOf('\n');
+            error(p, "expressão inválida: " + ((end > 0) ? msg.substring(0, end) : msg));
+            return null;
+        }
+        HashSet<String> vars = new HashSet<>();
+        collect(node, vars);
+        for (String var : vars) {
+            checkVariable(p, var);
+        }
+        return node;
+    }
+
+    /**
+     * Obtem as variáveis de uma expressão.
+     *
+     * @return true se a expressão contém uma atribuição
+     */
+    private boolean collect(Node node, HashSet<String> vars) {
+        boolean assign = false;
+        if (node instanceof ASTVarNode) {
+            vars.add(((ASTVarNode) node).getName());
+        } else if (node instanceof ASTFunNode) {
+            assign = ((ASTFunNode) node).getOperator() == parser.getOperatorSet().getAssign();
+        }
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            assign |= collect(node.jjtGetChild(i), vars);
+        }
+        return assign;
+    }
+
+    /**
+     * Verifica os programas salvos passados como argumento, ou um programa
+     * de exemplo com erros.
+     */
+    public static void main(String[] args) throws Exception {
+        Robot robot = new Robot();
+        robot.add(new HBridge(1));
+        Validator v = new Validator(robot);
+        if (args.length == 0) {
+            Function func = new Function("main", null);
+            func.add(new Declaration("i", 3));
+            While loop = new While("i > 0");
+            loop.add(new Declaration("i", 0)); //já existe
+            loop.add(new Move(70, 70));
+            loop.add(new Wait(500));
+            loop.add(new Procedure("i = i - 1 +"));
+            loop.add(new ReadDevice(Compass.class, "angle")); //sem bússola
+            func.add(loop);
+            While forever = new While("1");
+            forever.add(new Procedure("j = 2"));
+            func.add(forever);
+            If never = new If("2 < 1");
+            never.addTrue(new PrintString("%v", "k"));
+            func.add(never);
+            for (Issue i : v.validate(func)) {
+                System.out.println(i);
+            }
+        } else {
+            for (String arg : args) {
+                System.out.println(arg + ":");
+                for (Issue i : v.validate(FunctionSerializer.load(new File(arg)))) {
+                    System.out.println("  " + i);
+                }
+            }
+        }
+    }
+}
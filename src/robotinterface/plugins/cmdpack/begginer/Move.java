@@ -44,6 +44,14 @@ public class Move extends Command {
         this.m2 = (byte) m2;
     }
 
+    public byte getM1() {
+        return m1;
+    }
+
+    public byte getM2() {
+        return m2;
+    }
+
     @Override
     public void begin(Robot robot, Clock clock) throws ExecutionException {
         HBridge hb = robot.getDevice(HBridge.class);
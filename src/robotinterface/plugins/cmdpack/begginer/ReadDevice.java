@@ -52,8 +52,8 @@ import robotinterface.robot.device.Device;
 import robotinterface.robot.Robot;
 import robotinterface.robot.device.Compass;
 import robotinterface.robot.device.HBridge;
+import robotinterface.interpreter.ExecutionContext;
 import robotinterface.interpreter.ExecutionException;
-import robotinterface.util.trafficsimulator.Clock;
 import robotinterface.util.trafficsimulator.Timer;
 
 /**
@@ -63,8 +63,8 @@ import robotinterface.util.trafficsimulator.Timer;
 public class ReadDevice extends Procedure implements GraphicResource {
 
     public static final String RELOAD_VARS_ITEM = "<atualizar>";
-    private Timer timer;
-    private Device device;
+    //espera antes de ler o valor do dispositivo (ms)
+    private static final long READ_DELAY = 200;
     private Class<? extends Device> type;
     private String var;
     private DWidgetContainer sContainer;
@@ -147,20 +147,25 @@ public class ReadDevice extends Procedure implements GraphicResource {
         //adiciona os jcompoents no SimpleContainer
         sContainer.addJComponent(combobDevice, 15, 8, 110, 20);
         sContainer.addJComponent(combobVar, 15, 32, 110, 20);
-
-        //esse timer é outra coisa...
-        timer = new Timer(200);
     }
 
     public ReadDevice(Class<? extends Device> type, String var) {
         this.type = type;
         this.var = var;
-        timer = new Timer(200);
+    }
+
+    public Class<? extends Device> getDeviceType() {
+        return type;
+    }
+
+    public String getVariable() {
+        return var;
     }
 
     @Override
-    public void begin(Robot robot, Clock clock) throws ExecutionException {
-        device = robot.getDevice(type);
+    public void begin(ExecutionContext context) throws ExecutionException {
+        Robot robot = context.getRobot();
+        Device device = robot.getDevice(type);
         if (device != null) {
             //mensagem get padrão 
             byte[] msg = device.defaultGetMessage();
@@ -183,17 +188,19 @@ public class ReadDevice extends Procedure implements GraphicResource {
                 robot.getMainConnection().send(msg);
             }
         }
+        Timer timer = context.getTimer(this, READ_DELAY);
         timer.reset();
-        clock.addTimer(timer);
+        context.getClock().addTimer(timer);
     }
 
     @Override
-    public boolean perform(Robot r, Clock clock) throws ExecutionException {
-        if (timer.isConsumed()) { //espera 200ms antes de ler o valor do dispositivo
+    public boolean perform(ExecutionContext context) throws ExecutionException {
+        if (context.getTimer(this, READ_DELAY).isConsumed()) { //espera 200ms antes de ler o valor do dispositivo
+            Device device = context.getRobot().getDevice(type);
             if (device != null) {
                 String deviceState = device.stateToString();
                 if (!deviceState.isEmpty()) {
-                    execute(var + " = " + deviceState);
+                    execute(context, var + " = " + deviceState);
                 }
             }
             return true;
@@ -9,7 +9,7 @@ import robotinterface.robot.connection.Connection;
 import robotinterface.robot.Robot;
 import robotinterface.robot.device.HBridge;
 import robotinterface.interpreter.ExecutionException;
-import robotinterface.util.trafficsimulator.Clock;
+import robotinterface.interpreter.ExecutionContext;
 import robotinterface.util.trafficsimulator.Timer;
 
 /**
@@ -18,21 +18,26 @@ import robotinterface.util.trafficsimulator.Timer;
  */
 public class Wait extends Command {
     
-    private Timer timer;
+    private final long ms;
     
     public Wait (long ms){
-        timer = new Timer(ms);
+        this.ms = ms;
+    }
+
+    public long getMilis() {
+        return ms;
     }
 
     @Override
-    public void begin(Robot robot, Clock clock) throws ExecutionException {
+    public void begin(ExecutionContext context) throws ExecutionException {
+        Timer timer = context.getTimer(this, ms);
         timer.reset();
-        clock.addTimer(timer);
+        context.getClock().addTimer(timer);
     }
     
     @Override
-    public boolean perform(Robot robot, Clock clock) {
-        return timer.isConsumed();
+    public boolean perform(ExecutionContext context) {
+        return context.getTimer(this, ms).isConsumed();
     }
     
 }
@@ -4,13 +4,15 @@
  */
 package robotinterface.plugins.cmdpack.util;
 
-import robotinterface.algorithm.Command;
 import robotinterface.algorithm.procedure.Procedure;
 import java.util.ArrayList;
-import java.util.Arrays;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import org.nfunk.jep.SymbolTable;
 import org.nfunk.jep.Variable;
+import robotinterface.robot.connection.Connection;
 import robotinterface.robot.Robot;
-import robotinterface.util.trafficsimulator.Clock;
+import robotinterface.interpreter.ExecutionContext;
 
 /**
  *
@@ -18,30 +20,144 @@ import robotinterface.util.trafficsimulator.Clock;
  */
 public class PrintString extends Procedure {
 
-    private String str;
-    private ArrayList<String> varNames;
+    /**
+     * Destino do texto impresso por {@link PrintString}.
+     */
+    public interface Output {
 
-    public PrintString(String str, String... vars) {
-        if (vars != null) {
-            varNames = new ArrayList<>();
-            varNames.addAll(Arrays.asList(vars));
+        public void print(Robot robot, CharSequence str);
+    }
+    /**
+     * Imprime na saída padrão (System.out).
+     */
+    public static final Output CONSOLE = new Output() {
+        @Override
+        public void print(Robot robot, CharSequence str) {
+            System.out.println(str);
+        }
+    };
+    /**
+     * Envia o texto para o robô com o comando CMD_PRINT.
+     */
+    public static final Output ROBOT = new Output() {
+        private static final int MAX_LENGTH = 60;
+
+        @Override
+        public void print(Robot robot, CharSequence str) {
+            Connection c = robot.getMainConnection();
+            if (c == null) {
+                return;
+            }
+            int length = str.length();
+            int i = 0;
+            do {
+                int n = Math.min(MAX_LENGTH, length - i);
+                byte[] msg = new byte[n + 3];
+                msg[0] = Robot.CMD_PRINT;
+                msg[1] = Robot.XTRA_ALL;
+                msg[2] = (byte) n;
+                for (int k = 0; k < n; k++) {
+                    msg[k + 3] = (byte) str.charAt(i + k);
+                }
+                c.send(msg);
+                i += n;
+            } while (i < length);
+        }
+    };
+
+    /**
+     * Acrescenta o texto a uma JTextArea (painel de log) na thread do Swing,
+     * sem bloquear o interpretador.
+     */
+    public static class TextAreaOutput implements Output {
+
+        private final JTextArea textArea;
+
+        public TextAreaOutput(JTextArea textArea) {
+            this.textArea = textArea;
         }
+
+        @Override
+        public void print(Robot robot, CharSequence str) {
+            final String line = str.toString() + "\n";
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    textArea.append(line);
+                }
+            });
+        }
+    }
+    private static Output defaultOutput = CONSOLE;
+    private Output output = null;
+    private final String str;
+    private final String[] varNames;
+    //texto dividido nos marcadores %v: segments.length == marcadores + 1
+    private final String[] segments;
+    private final StringBuilder sb = new StringBuilder();
+
+    public PrintString(String str, String... vars) {
         this.str = str;
+        varNames = (vars != null) ? vars : new String[0];
+        ArrayList<String> parts = new ArrayList<>();
+        int begin = 0;
+        int i;
+        while ((i = str.indexOf("%v", begin)) >= 0) {
+            parts.add(str.substring(begin, i));
+            begin = i + 2;
+        }
+        parts.add(str.substring(begin));
+        segments = parts.toArray(new String[parts.size()]);
+    }
+
+    /**
+     * Define a saída usada pelos comandos sem uma saída própria.
+     */
+    public static void setDefaultOutput(Output output) {
+        defaultOutput = (output != null) ? output : CONSOLE;
+    }
+
+    /**
+     * Define a saída deste comando (null usa a saída padrão).
+     */
+    public void setOutput(Output output) {
+        this.output = output;
+    }
+
+    public String getText() {
+        return str;
+    }
+
+    public String[] getVariableNames() {
+        return varNames;
     }
 
     @Override
-    public boolean perform(Robot r, Clock clock) {
-        String out = new String(str);
-        for (String varName : varNames) {
-            Variable v = getParser().getSymbolTable().getVar(varName);
-            if (v != null && v.hasValidValue()) {
-                out = out.replaceFirst("%v", v.getValue().toString());
+    public boolean perform(ExecutionContext context) {
+        SymbolTable st = context.getParser().getSymbolTable();
+        sb.setLength(0);
+        sb.append(segments[0]);
+        for (int i = 1; i < segments.length; i++) {
+            if (i <= varNames.length) {
+                String varName = varNames[i - 1];
+                Variable v = st.getVar(varName);
+                if (v != null && v.hasValidValue()) {
+                    Object value = v.getValue();
+                    if (value instanceof Double) {
+                        sb.append(((Double) value).doubleValue());
+                    } else {
+                        sb.append(value);
+                    }
+                } else {
+                    sb.append('¿').append(varName).append('?');
+                }
             } else {
-                out = out.replaceFirst("%v", "¿" + varName + "?");
+                sb.append("%v");
             }
+            sb.append(segments[i]);
         }
 
-        System.out.println(out);
+        ((output != null) ? output : defaultOutput).print(context.getRobot(), sb);
         return true;
     }
 }
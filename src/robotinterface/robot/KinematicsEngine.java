@@ -0,0 +1,506 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.robot;
+
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import robotinterface.robot.simulation.World;
+
+/**
+ * Estado cinemático de vários robôs em vetores primitivos (um vetor por
+ * grandeza), avançado em um único laço. Cada {@link Robot} adicionado passa
+ * a ser uma visão de sua posição (slot) nos vetores.
+ *
+ * Acima de {@link #PARALLEL_THRESHOLD} robôs o passo é dividido entre as
+ * threads de um {@link ForkJoinPool}. As colisões (robô-obstáculo e
+ * robô-robô) são resolvidas em {@link #collide(World, double)}.
+ *
+ * As rodas seguem as velocidades comandadas ({@link Robot#setWheelTargets})
+ * com aceleração limitada (modelo dos motores).
+ */
+public class KinematicsEngine {
+
+    public static final int PARALLEL_THRESHOLD = 4096;
+    /**
+     * Aceleração padrão das rodas (pixels/s²): 10 unidades de velocidade do
+     * HBridge a cada 100 ms, como SimulationPanel.getAcceleration().
+     */
+    public static final double DEFAULT_ACCELERATION = 100 * Robot.SPEED_SCALE;
+    private static final int CHUNK = 1024;
+    private static ForkJoinPool pool = null;
+    //estado
+    private double[] x, y, theta, right, left;
+    private double[] rightTarget, leftTarget;
+    private double acceleration = DEFAULT_ACCELERATION;
+    //poses publicadas (anterior e atual) para o desenho
+    private double[] prevX, prevY, prevTheta, curX, curY, curTheta;
+    private final Object publishLock = new Object();
+    private volatile double alpha = 0;
+    private Robot[] robots;
+    //slots ordenados por x para a varredura de colisões
+    private int[] order;
+    private boolean orderDirty = true;
+    private final double[] pos = new double[2];
+    private long contacts = 0;
+    private int count = 0;
+    private boolean parallel = true;
+
+    public KinematicsEngine(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    public KinematicsEngine() {
+        this(16);
+    }
+
+    private void allocate(int n) {
+        x = grow(x, n);
+        y = grow(y, n);
+        theta = grow(theta, n);
+        right = grow(right, n);
+        left = grow(left, n);
+        rightTarget = grow(rightTarget, n);
+        leftTarget = grow(leftTarget, n);
+        prevX = grow(prevX, n);
+        prevY = grow(prevY, n);
+        prevTheta = grow(prevTheta, n);
+        curX = grow(curX, n);
+        curY = grow(curY, n);
+        curTheta = grow(curTheta, n);
+        robots = (robots == null) ? new Robot[n] : Arrays.copyOf(robots, n);
+        order = (order == null) ? new int[n] : Arrays.copyOf(order, n);
+    }
+
+    private static double[] grow(double[] a, int n) {
+        return (a == null) ? new double[n] : Arrays.copyOf(a, n);
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Define a aceleração máxima das rodas em pixels/s² (infinita para
+     * motores ideais).
+     */
+    public void setAcceleration(double acceleration) {
+        if (acceleration <= 0) {
+            throw new IllegalArgumentException("acceleration <= 0");
+        }
+        this.acceleration = acceleration;
+    }
+
+    public double getAcceleration() {
+        return acceleration;
+    }
+
+    /**
+     * Aproxima v do valor alvo variando no máximo dv.
+     */
+    static double approach(double v, double target, double dv) {
+        if (v < target) {
+            return Math.min(target, v + dv);
+        } else if (v > target) {
+            return Math.max(target, v - dv);
+        }
+        return v;
+    }
+
+    /**
+     * Copia o estado do robô para um novo slot.
+     */
+    public synchronized void add(Robot r) {
+        if (r.getEngine() != null) {
+            throw new IllegalStateException("robô já pertence a um motor");
+        }
+        if (count == x.length) {
+            synchronized (publishLock) {
+                allocate(count * 2);
+            }
+        }
+        int i = count++;
+        x[i] = r.getX();
+        y[i] = r.getY();
+        theta[i] = r.getTheta();
+        right[i] = r.getRightWheelSpeed();
+        left[i] = r.getLeftWheelSpeed();
+        rightTarget[i] = r.getRightWheelTarget();
+        leftTarget[i] = r.getLeftWheelTarget();
+        synchronized (publishLock) {
+            prevX[i] = curX[i] = x[i];
+            prevY[i] = curY[i] = y[i];
+            prevTheta[i] = curTheta[i] = theta[i];
+        }
+        robots[i] = r;
+        orderDirty = true;
+        r.bind(this, i);
+    }
+
+    /**
+     * Devolve o estado ao robô e move o último slot para a posição livre.
+     */
+    public synchronized void remove(Robot r) {
+        if (r.getEngine() != this) {
+            return;
+        }
+        int i = r.getSlot();
+        r.unbind(x[i], y[i], theta[i], right[i], left[i], rightTarget[i], leftTarget[i]);
+        int last = --count;
+        if (i != last) {
+            x[i] = x[last];
+            y[i] = y[last];
+            theta[i] = theta[last];
+            right[i] = right[last];
+            left[i] = left[last];
+            rightTarget[i] = rightTarget[last];
+            leftTarget[i] = leftTarget[last];
+            synchronized (publishLock) {
+                prevX[i] = prevX[last];
+                prevY[i] = prevY[last];
+                prevTheta[i] = prevTheta[last];
+                curX[i] = curX[last];
+                curY[i] = curY[last];
+                curTheta[i] = curTheta[last];
+            }
+            robots[i] = robots[last];
+            robots[i].bind(this, i);
+        }
+        robots[last] = null;
+        orderDirty = true;
+    }
+
+    /**
+     * Avança todos os robôs.
+     *
+     * @param dt intervalo de tempo em segundos
+     */
+    public synchronized void step(double dt) {
+        if (parallel && count >= PARALLEL_THRESHOLD) {
+            getPool().invoke(new StepTask(0, count, dt));
+        } else {
+            step(0, count, dt);
+        }
+    }
+
+    private void step(int from, int to, double dt) {
+        final double[] x = this.x, y = this.y, theta = this.theta;
+        final double[] right = this.right, left = this.left;
+        final double[] rightTarget = this.rightTarget, leftTarget = this.leftTarget;
+        final double size = Robot.size;
+        final double dv = acceleration * dt;
+        for (int i = from; i < to; i++) {
+            double l = left[i];
+            double r = right[i];
+            //modelo dos motores
+            if (l != leftTarget[i]) {
+                l = approach(l, leftTarget[i], dv);
+                left[i] = l;
+            }
+            if (r != rightTarget[i]) {
+                r = approach(r, rightTarget[i], dv);
+                right[i] = r;
+            }
+            double t = theta[i];
+            double pf = r + l;
+            double mf = l - r;
+            if (mf != 0) {
+                double a = size / 2 * pf / mf;
+                double b = t + mf * dt / size;
+                x[i] += a * (sin(b) - sin(t));
+                y[i] -= a * (cos(b) - cos(t));
+                theta[i] = b;
+            } else {
+                double d = pf / 2 * dt;
+                x[i] += d * cos(t);
+                y[i] += d * sin(t);
+            }
+        }
+    }
+
+    /**
+     * Resolve as colisões após um passo: afasta cada robô (círculo de raio
+     * dado) dos obstáculos do ambiente e separa os pares de robôs que se
+     * sobrepõem, encontrados por varredura na ordem de x.
+     *
+     * @param world ambiente (pode ser nulo)
+     * @param radius raio dos robôs
+     * @return número de contatos resolvidos
+     */
+    public synchronized int collide(World world, double radius) {
+        int n = 0;
+        if (orderDirty) {
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            orderDirty = false;
+        }
+        //ordenação por inserção: a ordem muda pouco de um passo para outro
+        for (int i = 1; i < count; i++) {
+            int s = order[i];
+            double v = x[s];
+            int j = i - 1;
+            while (j >= 0 && x[order[j]] > v) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = s;
+        }
+        double min = 2 * radius;
+        for (int i = 0; i < count; i++) {
+            int a = order[i];
+            for (int j = i + 1; j < count; j++) {
+                int b = order[j];
+                double dx = x[b] - x[a];
+                if (dx >= min) {
+                    break;
+                }
+                double dy = y[b] - y[a];
+                double d2 = dx * dx + dy * dy;
+                if (d2 < min * min) {
+                    double d = Math.sqrt(d2);
+                    double push = (min - d) / 2;
+                    double nx, ny;
+                    if (d > 1e-9) {
+                        nx = dx / d;
+                        ny = dy / d;
+                    } else {
+                        nx = 1;
+                        ny = 0;
+                    }
+                    x[a] -= nx * push;
+                    y[a] -= ny * push;
+                    x[b] += nx * push;
+                    y[b] += ny * push;
+                    n++;
+                }
+            }
+        }
+        if (world != null) {
+            for (int i = 0; i < count; i++) {
+                pos[0] = x[i];
+                pos[1] = y[i];
+                if (world.resolve(pos, radius) > 0) {
+                    x[i] = pos[0];
+                    y[i] = pos[1];
+                    n++;
+                }
+            }
+        }
+        contacts += n;
+        return n;
+    }
+
+    /**
+     * Total de contatos resolvidos desde a criação.
+     */
+    public synchronized long getContacts() {
+        return contacts;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    private class StepTask extends RecursiveAction {
+
+        private final int from, to;
+        private final double dt;
+
+        private static final long serialVersionUID = 1L;
+
+        StepTask(int from, int to, double dt) {
+            this.from = from;
+            this.to = to;
+            this.dt = dt;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK) {
+                step(from, to, dt);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new StepTask(from, mid, dt), new StepTask(mid, to, dt));
+            }
+        }
+    }
+
+    /**
+     * Publica as poses atuais; as publicadas antes passam a ser as
+     * anteriores.
+     */
+    public synchronized void publish() {
+        synchronized (publishLock) {
+            double[] t = prevX;
+            prevX = curX;
+            curX = t;
+            t = prevY;
+            prevY = curY;
+            curY = t;
+            t = prevTheta;
+            prevTheta = curTheta;
+            curTheta = t;
+            System.arraycopy(x, 0, curX, 0, count);
+            System.arraycopy(y, 0, curY, 0, count);
+            System.arraycopy(theta, 0, curTheta, 0, count);
+        }
+    }
+
+    /**
+     * Define a fração do próximo passo usada na interpolação.
+     */
+    public void setAlpha(double alpha) {
+        this.alpha = alpha;
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Obtem a pose interpolada de um slot entre as duas últimas poses
+     * publicadas.
+     *
+     * @param out {x, y, theta}
+     */
+    public void getInterpolatedPose(int i, double[] out) {
+        double a = alpha;
+        synchronized (publishLock) {
+            out[0] = prevX[i] + (curX[i] - prevX[i]) * a;
+            out[1] = prevY[i] + (curY[i] - prevY[i]) * a;
+            out[2] = prevTheta[i] + (curTheta[i] - prevTheta[i]) * a;
+        }
+    }
+
+    /**
+     * Componentes da pose interpolada, sem alocar um vetor (usado a cada
+     * quadro no desenho).
+     */
+    public double getInterpolatedX(int i) {
+        double a = alpha;
+        synchronized (publishLock) {
+            return prevX[i] + (curX[i] - prevX[i]) * a;
+        }
+    }
+
+    public double getInterpolatedY(int i) {
+        double a = alpha;
+        synchronized (publishLock) {
+            return prevY[i] + (curY[i] - prevY[i]) * a;
+        }
+    }
+
+    public double getInterpolatedTheta(int i) {
+        double a = alpha;
+        synchronized (publishLock) {
+            return prevTheta[i] + (curTheta[i] - prevTheta[i]) * a;
+        }
+    }
+
+    //acesso ao estado pelos robôs (visões)
+    double getX(int i) {
+        return x[i];
+    }
+
+    double getY(int i) {
+        return y[i];
+    }
+
+    double getTheta(int i) {
+        return theta[i];
+    }
+
+    void setTheta(int i, double v) {
+        theta[i] = v;
+    }
+
+    double getRight(int i) {
+        return right[i];
+    }
+
+    void setRight(int i, double v) {
+        right[i] = v;
+        rightTarget[i] = v;
+    }
+
+    double getLeft(int i) {
+        return left[i];
+    }
+
+    void setLeft(int i, double v) {
+        left[i] = v;
+        leftTarget[i] = v;
+    }
+
+    double getRightTarget(int i) {
+        return rightTarget[i];
+    }
+
+    double getLeftTarget(int i) {
+        return leftTarget[i];
+    }
+
+    void setTargets(int i, double left, double right) {
+        leftTarget[i] = left;
+        rightTarget[i] = right;
+    }
+
+    public static void main(String[] args) {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        int steps = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        for (int pass = 0; pass < 2; pass++) {
+            boolean par = (pass == 1);
+            KinematicsEngine e = new KinematicsEngine(n);
+            e.setParallel(par);
+            for (int i = 0; i < n; i++) {
+                Robot r = new Robot();
+                r.setRightWheelSpeed(i % 100);
+                r.setLeftWheelSpeed(50);
+                e.add(r);
+            }
+            for (int i = 0; i < steps; i++) {
+                e.step(0.001);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < steps; i++) {
+                e.step(0.001);
+            }
+            double ms = (System.nanoTime() - start) / 1e6;
+            System.out.printf("%d robôs, %d passos (%s): %.1f ms (%.1f passos/s)%n",
+                    n, steps, par ? "paralelo" : "serial", ms, steps / ms * 1000);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.robot;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+
+/**
+ * Mapa de ocupação probabilístico (log-odds) construído a partir das
+ * leituras de distância do robô.
+ *
+ * O mapa é dividido em blocos de {@link #TILE} x {@link #TILE} células,
+ * criados quando uma leitura os atinge; assim ele cresce em qualquer
+ * direção e a memória é proporcional à área explorada. Cada bloco guarda a
+ * imagem já desenhada, refeita só quando o bloco muda.
+ */
+public class OccupancyGrid {
+
+    private static final int TILE_BITS = 6;
+    public static final int TILE = 1 << TILE_BITS;
+    private static final int TILE_MASK = TILE - 1;
+    //incrementos de log-odds
+    private static final float L_OCCUPIED = 0.85f;
+    private static final float L_FREE = -0.4f;
+    private static final float L_MAX = 5f;
+
+    private static class Tile {
+
+        final int tx, ty;
+        final float[] cells = new float[TILE * TILE];
+        BufferedImage image = null;
+        boolean dirty = true;
+
+        Tile(int tx, int ty) {
+            this.tx = tx;
+            this.ty = ty;
+        }
+    }
+    private final double resolution;
+    private final HashMap<Long, Tile> tiles = new HashMap<>();
+    private Tile last = null;
+    private int[] pixels = null;
+
+    /**
+     * @param resolution tamanho de uma célula (pixels do desenho)
+     */
+    public OccupancyGrid(double resolution) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("resolution <= 0");
+        }
+        this.resolution = resolution;
+    }
+
+    public OccupancyGrid() {
+        this(5);
+    }
+
+    public double getResolution() {
+        return resolution;
+    }
+
+    public synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        last = null;
+    }
+
+    private static long key(int tx, int ty) {
+        return ((long) tx << 32) | (ty & 0xFFFFFFFFL);
+    }
+
+    private Tile tile(int cx, int cy, boolean create) {
+        int tx = cx >> TILE_BITS;
+        int ty = cy >> TILE_BITS;
+        if (last != null && last.tx == tx && last.ty == ty) {
+            return last;
+        }
+        Long k = key(tx, ty);
+        Tile t = tiles.get(k);
+        if (t == null && create) {
+            t = new Tile(tx, ty);
+            tiles.put(k, t);
+        }
+        if (t != null) {
+            last = t;
+        }
+        return t;
+    }
+
+    private void update(int cx, int cy, float delta) {
+        Tile t = tile(cx, cy, true);
+        int i = (cy & TILE_MASK) * TILE + (cx & TILE_MASK);
+        float v = t.cells[i] + delta;
+        t.cells[i] = (v > L_MAX) ? L_MAX : (v < -L_MAX) ? -L_MAX : v;
+        t.dirty = true;
+    }
+
+    /**
+     * Integra uma leitura: as células ao longo do feixe ficam mais livres e
+     * a célula do ponto atingido mais ocupada.
+     *
+     * @param x origem do feixe
+     * @param y origem do feixe
+     * @param angle direção em radianos
+     * @param dist distância medida
+     * @param maxDist alcance do sensor; leituras no alcance não marcam
+     * obstáculo
+     */
+    public synchronized void integrate(double x, double y, double angle, double dist, double maxDist) {
+        boolean hit = dist < maxDist;
+        dist = Math.min(dist, maxDist);
+        int x0 = (int) Math.floor(x / resolution);
+        int y0 = (int) Math.floor(y / resolution);
+        int x1 = (int) Math.floor((x + dist * Math.cos(angle)) / resolution);
+        int y1 = (int) Math.floor((y + dist * Math.sin(angle)) / resolution);
+        //Bresenham
+        int dx = Math.abs(x1 - x0), sx = (x0 < x1) ? 1 : -1;
+        int dy = -Math.abs(y1 - y0), sy = (y0 < y1) ? 1 : -1;
+        int err = dx + dy;
+        while (x0 != x1 || y0 != y1) {
+            update(x0, y0, L_FREE);
+            int e2 = 2 * err;
+            if (e2 >= dy) {
+                err += dy;
+                x0 += sx;
+            }
+            if (e2 <= dx) {
+                err += dx;
+                y0 += sy;
+            }
+        }
+        update(x1, y1, hit ? L_OCCUPIED : L_FREE);
+    }
+
+    /**
+     * Obtem o log-odds da célula que contém o ponto (0 se desconhecida).
+     */
+    public synchronized float getLogOdds(double x, double y) {
+        int cx = (int) Math.floor(x / resolution);
+        int cy = (int) Math.floor(y / resolution);
+        Tile t = tile(cx, cy, false);
+        if (t == null) {
+            return 0;
+        }
+        return t.cells[(cy & TILE_MASK) * TILE + (cx & TILE_MASK)];
+    }
+
+    /**
+     * Obtem a probabilidade de ocupação do ponto (0.5 se desconhecido).
+     */
+    public double getProbability(double x, double y) {
+        return 1 - 1 / (1 + Math.exp(getLogOdds(x, y)));
+    }
+
+    private void render(Tile t) {
+        if (t.image == null) {
+            t.image = new BufferedImage(TILE, TILE, BufferedImage.TYPE_INT_ARGB);
+        }
+        if (pixels == null) {
+            pixels = new int[TILE * TILE];
+        }
+        for (int i = 0; i < pixels.length; i++) {
+            float l = t.cells[i];
+            if (l == 0) {
+                pixels[i] = 0;
+            } else {
+                double p = 1 - 1 / (1 + Math.exp(l));
+                int gray = (int) ((1 - p) * 255);
+                int alpha = (int) (Math.abs(p - 0.5) * 2 * 255);
+                pixels[i] = (alpha << 24) | (gray << 16) | (gray << 8) | gray;
+            }
+        }
+        t.image.setRGB(0, 0, TILE, TILE, pixels, 0, TILE);
+        t.dirty = false;
+    }
+
+    /**
+     * Desenha os blocos, refazendo as imagens dos que mudaram.
+     */
+    public synchronized void draw(Graphics2D g) {
+        AffineTransform t = new AffineTransform();
+        for (Tile tile : tiles.values()) {
+            if (tile.dirty) {
+                render(tile);
+            }
+            t.setToTranslation(tile.tx * TILE * resolution, tile.ty * TILE * resolution);
+            t.scale(resolution, resolution);
+            g.drawImage(tile.image, t, null);
+        }
+    }
+}
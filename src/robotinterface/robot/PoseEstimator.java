@@ -0,0 +1,263 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.robot;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import java.util.Random;
+import robotinterface.robot.device.Compass;
+import robotinterface.robot.simulation.SimulatedCompass;
+
+/**
+ * Estimador de pose (x, y, theta) por filtro de Kalman estendido: a
+ * predição usa as velocidades comandadas das rodas (odometria de tração
+ * diferencial) e a correção usa as leituras da bússola.
+ *
+ * Cada chamada avança o filtro até o instante informado (em nanosegundos,
+ * como {@link System#nanoTime()}); leituras fora de ordem são aplicadas no
+ * instante atual. A covariância é mantida em campos, sem alocação.
+ */
+public class PoseEstimator {
+
+    private final double wheelBase;
+    //estado
+    private double x, y, theta;
+    //covariância (simétrica)
+    private double pxx, pxy, pxt, pyy, pyt, ptt;
+    //ruído de processo: variância por unidade de deslocamento / rotação
+    private double distanceNoise = 0.05;
+    private double turnNoise = 0.02;
+    //desvio padrão da bússola (radianos)
+    private double compassNoise = Math.toRadians(5);
+    private double left, right;
+    private long lastNanos;
+    private boolean started = false;
+
+    /**
+     * @param wheelBase distância entre as rodas (mesma unidade das
+     * velocidades)
+     */
+    public PoseEstimator(double wheelBase) {
+        this.wheelBase = wheelBase;
+    }
+
+    public PoseEstimator() {
+        this(Robot.size);
+    }
+
+    /**
+     * Reinicia o estado com incerteza inicial dada.
+     */
+    public void reset(double x, double y, double theta, double sigmaPos, double sigmaTheta) {
+        this.x = x;
+        this.y = y;
+        this.theta = theta;
+        pxx = pyy = sigmaPos * sigmaPos;
+        ptt = sigmaTheta * sigmaTheta;
+        pxy = pxt = pyt = 0;
+        started = false;
+    }
+
+    /**
+     * Define o ruído de processo (variância por pixel percorrido e por
+     * radiano girado).
+     */
+    public void setProcessNoise(double distance, double turn) {
+        distanceNoise = distance;
+        turnNoise = turn;
+    }
+
+    /**
+     * Define o desvio padrão das leituras da bússola em graus.
+     */
+    public void setCompassNoise(double degrees) {
+        compassNoise = Math.toRadians(degrees);
+    }
+
+    /**
+     * Define as velocidades comandadas das rodas a partir do instante
+     * dado; o trecho anterior é integrado com as velocidades antigas.
+     */
+    public void setWheelSpeeds(double left, double right, long nanos) {
+        predict(nanos);
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Integra a odometria até o instante dado.
+     */
+    public void predict(long nanos) {
+        if (!started) {
+            started = true;
+            lastNanos = nanos;
+            return;
+        }
+        long d = nanos - lastNanos;
+        if (d <= 0) {
+            return;
+        }
+        lastNanos = nanos;
+        predict(left, right, d / 1e9);
+    }
+
+    private void predict(double left, double right, double dt) {
+        double v = (left + right) / 2;
+        double w = (left - right) / wheelBase;
+        double dth = w * dt;
+        double c = cos(theta), s = sin(theta);
+        //deslocamento e jacobianas (df/dtheta)
+        double fxt, fyt;
+        if (Math.abs(dth) > 1e-9) {
+            double a = v / w;
+            double c2 = cos(theta + dth), s2 = sin(theta + dth);
+            x += a * (s2 - s);
+            y -= a * (c2 - c);
+            fxt = a * (c2 - c);
+            fyt = a * (s2 - s);
+        } else {
+            x += v * dt * c;
+            y += v * dt * s;
+            fxt = -v * dt * s;
+            fyt = v * dt * c;
+        }
+        theta += dth;
+        //P = F P F' + Q, com F = [1 0 fxt; 0 1 fyt; 0 0 1]
+        double nxx = pxx + 2 * fxt * pxt + fxt * fxt * ptt;
+        double nxy = pxy + fxt * pyt + fyt * pxt + fxt * fyt * ptt;
+        double nxt = pxt + fxt * ptt;
+        double nyy = pyy + 2 * fyt * pyt + fyt * fyt * ptt;
+        double nyt = pyt + fyt * ptt;
+        double dist = Math.abs(v * dt);
+        double qd = distanceNoise * dist;
+        pxx = nxx + qd * c * c;
+        pxy = nxy + qd * c * s;
+        pyy = nyy + qd * s * s;
+        pxt = nxt;
+        pyt = nyt;
+        ptt += turnNoise * (Math.abs(dth) + 0.01 * dist / wheelBase);
+    }
+
+    /**
+     * Corrige a orientação com uma leitura da bússola.
+     *
+     * @param degrees ângulo lido (graus)
+     * @param nanos instante da leitura
+     */
+    public void updateCompass(double degrees, long nanos) {
+        predict(nanos);
+        //inovação no intervalo (-pi, pi]
+        double r = Math.toRadians(degrees) - theta;
+        r -= 2 * PI * Math.floor((r + PI) / (2 * PI));
+        double s = ptt + compassNoise * compassNoise;
+        double kx = pxt / s, ky = pyt / s, kt = ptt / s;
+        x += kx * r;
+        y += ky * r;
+        theta += kt * r;
+        //P = (I - K H) P, com H = [0 0 1]
+        double ot = pxt, oyt = pyt, ott = ptt;
+        pxx -= kx * ot;
+        pxy -= kx * oyt;
+        pxt -= kx * ott;
+        pyy -= ky * oyt;
+        pyt -= ky * ott;
+        ptt -= kt * ott;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getTheta() {
+        return theta;
+    }
+
+    /**
+     * Desvio padrão estimado da orientação (radianos).
+     */
+    public double getThetaSigma() {
+        return Math.sqrt(ptt);
+    }
+
+    public double getPositionSigma() {
+        return Math.sqrt(pxx + pyy);
+    }
+
+    public static void main(String[] args) {
+        //robô simulado cujas rodas giram 5% diferente do comandado, com
+        //bússola de 8 graus de ruído lida a 20 Hz
+        Robot r = new Robot();
+        Compass compass = new Compass();
+        r.add(compass);
+        Simulator sim = new Simulator();
+        sim.add(r);
+        SimulatedCompass sc = new SimulatedCompass(r, compass, 20);
+        sc.setNoise(8, 0);
+        sc.setSeed(1);
+        sim.addSensor(sc);
+        PoseEstimator e = new PoseEstimator();
+        e.setCompassNoise(8);
+        e.reset(0, 0, 0, 1, 0.01);
+        Random rnd = new Random(2);
+        long t = 0;
+        double rawErr = 0, estErr = 0, odoErr = 0;
+        int n = 0;
+        PoseEstimator odo = new PoseEstimator();
+        odo.reset(0, 0, 0, 1, 0.01);
+        for (int k = 0; k < 200; k++) {
+            if (k % 20 == 0) {
+                double cl = rnd.nextDouble() * 100 - 20;
+                double cr = rnd.nextDouble() * 100 - 20;
+                r.setLeftWheelSpeed(cl * 1.05);
+                r.setRightWheelSpeed(cr * 0.95);
+                e.setWheelSpeeds(cl, cr, t);
+                odo.setWheelSpeeds(cl, cr, t);
+            }
+            sim.advance(0.05);
+            t += 50000000L;
+            e.updateCompass(compass.getAlpha(), t);
+            odo.predict(t);
+            double truth = r.getTheta();
+            rawErr += Math.abs(angle(Math.toRadians(compass.getAlpha()) - truth));
+            estErr += Math.abs(angle(e.getTheta() - truth));
+            odoErr += Math.abs(angle(odo.getTheta() - truth));
+            n++;
+        }
+        System.out.printf("erro médio de orientação: bússola %.2f°, odometria %.2f°, filtro %.2f°%n",
+                Math.toDegrees(rawErr / n), Math.toDegrees(odoErr / n), Math.toDegrees(estErr / n));
+        System.out.printf("posição: real (%.1f, %.1f), filtro (%.1f, %.1f), odometria (%.1f, %.1f)%n",
+                r.getX(), r.getY(), e.getX(), e.getY(), odo.getX(), odo.getY());
+    }
+
+    private static double angle(double a) {
+        return a - 2 * PI * Math.floor((a + PI) / (2 * PI));
+    }
+}
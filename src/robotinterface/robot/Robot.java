@@ -5,6 +5,7 @@
 package robotinterface.robot;
 
 import robotinterface.robot.device.Device;
+import robotinterface.robot.device.HBridge;
 import robotinterface.robot.connection.Connection;
 import robotinterface.drawable.Drawable;
 import robotinterface.drawable.DrawingPanel;
@@ -33,10 +34,19 @@ public class Robot implements Observer<ByteBuffer, Connection>, Observable<Devic
 
     public static final double SIZE_CM = 20;
     public static final double size = 60;
+    //velocidade no desenho (pixels/s) por unidade de velocidade do HBridge (1 cm/s)
+    public static final double SPEED_SCALE = size / SIZE_CM;
     private double x, y;
     private double theta;
     private double rightWheelSpeed, leftWheelSpeed;
+    //velocidades comandadas (o modelo dos motores acelera até elas)
+    private double rightWheelTarget, leftWheelTarget;
     private Rectangle2D.Double bounds = new Rectangle.Double();
+    //quando simulado, o estado fica no motor (slot) e não nos campos acima
+    private volatile KinematicsEngine engine = null;
+    private int slot = -1;
+    //ponte H que comanda as rodas (sem alterar a conexão dos dispositivos)
+    private volatile HBridge hbridge = null;
     private ArrayList<Observer<Device, Robot>> observers = new ArrayList<>();
 
     @Override
@@ -111,6 +121,17 @@ public class Robot implements Observer<ByteBuffer, Connection>, Observable<Devic
     public final void add(Device d) {
         devices.add(d);
         d.setID(devices.size() - 1);
+        if (d instanceof HBridge) {
+            hbridge = (HBridge) d;
+            hbridge.setRobot(this);
+        }
+    }
+
+    /**
+     * Obtem a ponte H do robô, ou null se ela não foi adicionada.
+     */
+    public final HBridge getHBridge() {
+        return hbridge;
     }
 
     public final void add(Connection c) {
@@ -315,32 +336,124 @@ public class Robot implements Observer<ByteBuffer, Connection>, Observable<Devic
         }
     }
 
+    public KinematicsEngine getEngine() {
+        return engine;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    void bind(KinematicsEngine engine, int slot) {
+        this.slot = slot;
+        this.engine = engine;
+    }
+
+    void unbind(double x, double y, double theta, double right, double left, double rightTarget, double leftTarget) {
+        this.x = x;
+        this.y = y;
+        this.theta = theta;
+        rightWheelSpeed = right;
+        leftWheelSpeed = left;
+        rightWheelTarget = rightTarget;
+        leftWheelTarget = leftTarget;
+        engine = null;
+        slot = -1;
+    }
+
+    public double getX() {
+        KinematicsEngine e = engine;
+        return (e != null) ? e.getX(slot) : x;
+    }
+
+    public double getY() {
+        KinematicsEngine e = engine;
+        return (e != null) ? e.getY(slot) : y;
+    }
+
     public double getTheta() {
-        return theta;
+        KinematicsEngine e = engine;
+        return (e != null) ? e.getTheta(slot) : theta;
     }
 
     public void setTheta(double theta) {
-        this.theta = theta;
+        KinematicsEngine e = engine;
+        if (e != null) {
+            e.setTheta(slot, theta);
+        } else {
+            this.theta = theta;
+        }
     }
 
     public double getRightWheelSpeed() {
-        return rightWheelSpeed;
+        KinematicsEngine e = engine;
+        return (e != null) ? e.getRight(slot) : rightWheelSpeed;
     }
 
     public void setRightWheelSpeed(double rightWheelSpeed) {
-        this.rightWheelSpeed = rightWheelSpeed;
+        KinematicsEngine e = engine;
+        if (e != null) {
+            e.setRight(slot, rightWheelSpeed);
+        } else {
+            this.rightWheelSpeed = rightWheelSpeed;
+            rightWheelTarget = rightWheelSpeed;
+        }
     }
 
     public double getLeftWheelSpeed() {
-        return leftWheelSpeed;
+        KinematicsEngine e = engine;
+        return (e != null) ? e.getLeft(slot) : leftWheelSpeed;
     }
 
     public void setLeftWheelSpeed(double leftWheelSpeed) {
-        this.leftWheelSpeed = leftWheelSpeed;
+        KinematicsEngine e = engine;
+        if (e != null) {
+            e.setLeft(slot, leftWheelSpeed);
+        } else {
+            this.leftWheelSpeed = leftWheelSpeed;
+            leftWheelTarget = leftWheelSpeed;
+        }
+    }
+
+    double getRightWheelTarget() {
+        KinematicsEngine e = engine;
+        return (e != null) ? e.getRightTarget(slot) : rightWheelTarget;
+    }
+
+    double getLeftWheelTarget() {
+        KinematicsEngine e = engine;
+        return (e != null) ? e.getLeftTarget(slot) : leftWheelTarget;
+    }
+
+    /**
+     * Define as velocidades comandadas às rodas (pixels/s); ao contrário de
+     * {@link #setLeftWheelSpeed(double)}, as rodas chegam a elas com a
+     * aceleração limitada do modelo dos motores.
+     */
+    public void setWheelTargets(double left, double right) {
+        KinematicsEngine e = engine;
+        if (e != null) {
+            e.setTargets(slot, left, right);
+        } else {
+            leftWheelTarget = left;
+            rightWheelTarget = right;
+        }
     }
     double R = 0;
 
-    private void move(double dt) {
+    /**
+     * Avança a cinemática do robô (tração diferencial). Sem efeito quando o
+     * robô pertence a um {@link KinematicsEngine}, que o avança.
+     *
+     * @param dt intervalo de tempo em segundos
+     */
+    public void move(double dt) {
+        if (engine != null) {
+            return;
+        }
+        double dv = KinematicsEngine.DEFAULT_ACCELERATION * dt;
+        leftWheelSpeed = KinematicsEngine.approach(leftWheelSpeed, leftWheelTarget, dv);
+        rightWheelSpeed = KinematicsEngine.approach(rightWheelSpeed, rightWheelTarget, dv);
         double pf = rightWheelSpeed + leftWheelSpeed;
         double mf = leftWheelSpeed - rightWheelSpeed;
         double hf = pf / 2;
@@ -361,8 +474,14 @@ public class Robot implements Observer<ByteBuffer, Connection>, Observable<Devic
 
     @Override
     public final Rectangle2D.Double getObjectBouds() {
-        bounds.x = x;
-        bounds.y = y;
+        KinematicsEngine e = engine;
+        if (e != null) {
+            bounds.x = e.getInterpolatedX(slot);
+            bounds.y = e.getInterpolatedY(slot);
+        } else {
+            bounds.x = x;
+            bounds.y = y;
+        }
         bounds.width = bounds.height = size;
         return bounds;
     }
@@ -403,7 +522,12 @@ public class Robot implements Observer<ByteBuffer, Connection>, Observable<Devic
         AffineTransform o = g.getTransform();
         AffineTransform t = new AffineTransform(o);
         //t.translate(x, y); DrawingPanel se encarrega de definir a posiçãos
-        t.rotate(theta);
+        KinematicsEngine e = engine;
+        if (e != null) {
+            t.rotate(e.getInterpolatedTheta(slot));
+        } else {
+            t.rotate(theta);
+        }
         g.setTransform(t);
         g.setColor(Color.gray);
         int iSize = (int) size;
@@ -424,7 +548,10 @@ public class Robot implements Observer<ByteBuffer, Connection>, Observable<Devic
         g.fillRoundRect(-ww / 2, wp, ww, wh, (int) (size * .1), (int) (size * .1));
         g.setTransform(o);
 
-        move(ga.getClock().getDt());
+        if (engine == null) {
+            //sem simulador a cinemática acompanha os quadros
+            move(ga.getClock().getDt());
+        }
     }
 
     @Override
@@ -0,0 +1,246 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.robot;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import robotinterface.robot.device.Compass;
+import robotinterface.robot.device.IRProximitySensor;
+import robotinterface.robot.simulation.SimulatedCompass;
+import robotinterface.robot.simulation.SimulatedIRSensor;
+import robotinterface.robot.simulation.SimulatedSensor;
+import robotinterface.robot.simulation.World;
+
+/**
+ * Avança a cinemática dos robôs simulados em passos de tempo fixos,
+ * independente do desenho.
+ *
+ * O estado dos robôs fica em um {@link KinematicsEngine}. Como thread,
+ * segue o tempo real (ex.: 1 kHz) e publica as poses após cada grupo de
+ * passos; o desenho interpola entre as duas
+ * últimas poses. Sem iniciar a thread, {@link #advance(double)} e
+ * {@link #step()} permitem simular sem interface gráfica.
+ *
+ * Os sensores simulados ({@link SimulatedSensor}) são amostrados no tempo
+ * simulado, contra o {@link World} definido.
+ */
+public class Simulator extends Thread {
+
+    //número máximo de passos atrasados recuperados de uma vez
+    private static final int MAX_CATCH_UP = 250;
+    private final KinematicsEngine engine = new KinematicsEngine();
+    private final CopyOnWriteArrayList<SimulatedSensor<?>> sensors = new CopyOnWriteArrayList<>();
+    private volatile World world = null;
+    private volatile boolean collisions = true;
+    private double time = 0;
+    private final double dt;
+    private final long stepNanos;
+    private double accumulator = 0;
+    private volatile boolean paused = false;
+    private long steps = 0;
+
+    /**
+     * @param rate frequência da simulação (passos por segundo)
+     */
+    public Simulator(double rate) {
+        super("Simulator");
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate <= 0");
+        }
+        dt = 1 / rate;
+        stepNanos = (long) (1e9 / rate);
+        setDaemon(true);
+    }
+
+    public Simulator() {
+        this(1000);
+    }
+
+    public void add(Robot r) {
+        if (r.getEngine() != engine) {
+            engine.add(r);
+        }
+    }
+
+    public void remove(Robot r) {
+        engine.remove(r);
+    }
+
+    public KinematicsEngine getEngine() {
+        return engine;
+    }
+
+    public void addSensor(SimulatedSensor<?> sensor) {
+        sensors.addIfAbsent(sensor);
+    }
+
+    public void removeSensor(SimulatedSensor<?> sensor) {
+        sensors.remove(sensor);
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public void setWorld(World world) {
+        this.world = world;
+    }
+
+    /**
+     * Ativa a resolução de colisões entre robôs e com o {@link World}.
+     */
+    public void setCollisions(boolean collisions) {
+        this.collisions = collisions;
+    }
+
+    public boolean isCollisionsEnabled() {
+        return collisions;
+    }
+
+    /**
+     * Obtem o tempo simulado em segundos.
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * Obtem o intervalo de um passo em segundos.
+     */
+    public double getStep() {
+        return dt;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Fração do próximo passo já decorrida, usada para interpolar o
+     * desenho.
+     */
+    public double getAlpha() {
+        return engine.getAlpha();
+    }
+
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Executa um passo da simulação em todos os robôs.
+     */
+    public void step() {
+        engine.step(dt);
+        if (collisions) {
+            engine.collide(world, Robot.size / 2);
+        }
+        steps++;
+        time = steps * dt;
+        if (!sensors.isEmpty()) {
+            World w = world;
+            for (SimulatedSensor<?> s : sensors) {
+                s.update(time, w);
+            }
+        }
+    }
+
+    /**
+     * Avança a simulação um intervalo de tempo em passos fixos; a fração de
+     * passo que sobra é acumulada para a próxima chamada.
+     *
+     * @param seconds intervalo em segundos
+     */
+    public void advance(double seconds) {
+        accumulator += seconds;
+        while (accumulator >= dt) {
+            step();
+            accumulator -= dt;
+        }
+        engine.setAlpha(accumulator / dt);
+        engine.publish();
+    }
+
+    @Override
+    public void run() {
+        long last = System.nanoTime();
+        long lag = 0;
+        while (!isInterrupted()) {
+            long now = System.nanoTime();
+            if (paused) {
+                lag = 0;
+            } else {
+                lag += now - last;
+                int n = 0;
+                while (lag >= stepNanos && n < MAX_CATCH_UP) {
+                    step();
+                    lag -= stepNanos;
+                    n++;
+                }
+                if (lag >= stepNanos) {
+                    lag = 0; //muito atrasado: descarta o tempo perdido
+                }
+                if (n > 0) {
+                    engine.publish();
+                }
+                engine.setAlpha((double) lag / stepNanos);
+            }
+            last = now;
+            LockSupport.parkNanos(stepNanos - lag);
+        }
+    }
+
+    public static void main(String[] args) {
+        //robô girando no centro de uma sala 600x400, sem interface gráfica
+        World world = new World();
+        world.addRectangle(-300, -200, 600, 400);
+        world.addCircle(150, 0, 30);
+        Robot r = new Robot();
+        Compass compass = new Compass();
+        IRProximitySensor ir = new IRProximitySensor();
+        r.add(compass);
+        r.add(ir);
+        r.setRightWheelSpeed(-20);
+        r.setLeftWheelSpeed(20);
+        Simulator sim = new Simulator();
+        sim.setWorld(world);
+        sim.add(r);
+        SimulatedIRSensor irSim = new SimulatedIRSensor(r, ir);
+        irSim.setRange(120);
+        irSim.setNoise(0.5, 0);
+        sim.addSensor(new SimulatedCompass(r, compass));
+        sim.addSensor(irSim);
+        for (int i = 0; i < 20; i++) {
+            sim.advance(0.5);
+            System.out.printf("t=%.1fs bússola=%s ir=%s cm%n", sim.getTime(),
+                    compass.stateToString(), ir.stateToString());
+        }
+    }
+}
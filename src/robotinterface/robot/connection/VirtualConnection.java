@@ -0,0 +1,57 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package robotinterface.robot.connection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import robotinterface.util.observable.Observer;
+
+/**
+ * Conexão de um robô simulado: sempre conectada, as mensagens enviadas são
+ * descartadas.
+ *
+ * @author antunes
+ */
+public class VirtualConnection implements Connection {
+
+    private final ArrayList<Observer<ByteBuffer, Connection>> observers = new ArrayList<>();
+
+    @Override
+    public void send(byte[] data) {
+    }
+
+    @Override
+    public void send(ByteBuffer data) {
+    }
+
+    @Override
+    public boolean available() {
+        return false;
+    }
+
+    @Override
+    public int receive(byte[] b, int size) {
+        return 0;
+    }
+
+    @Override
+    public boolean establishConnection() {
+        return true;
+    }
+
+    @Override
+    public void closeConnection() {
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public void attach(Observer<ByteBuffer, Connection> observer) {
+        observers.add(observer);
+    }
+}
@@ -12,7 +12,7 @@ import java.nio.ByteBuffer;
  */
 public class Compass extends Device {
 
-    int alpha = 0;
+    volatile int alpha = 0;
 
     @Override
     public void setState(ByteBuffer data) {
@@ -33,4 +33,11 @@ public class Compass extends Device {
     public double getAlpha() {
         return alpha;
     }
+
+    /**
+     * Define o ângulo sem passar pela conexão (simulação).
+     */
+    public void setAlpha(int alpha) {
+        this.alpha = alpha;
+    }
 }
@@ -23,11 +23,11 @@ public abstract class Device {
         
     }
     
-    public static final long TIMEOUT = 1000;
+    public static final long TIMEOUT = 1000; //ms
     private byte id;
     private static Connection connection;
     private boolean received;
-    private long startReadingTime;
+    private long startReadingTime; //System.nanoTime()
     
     @Deprecated
     public final void markUnread(){ //só usado por Robot.update(...)
@@ -35,14 +35,14 @@ public abstract class Device {
     }
     
     public final void setWaiting(){
-        startReadingTime = System.currentTimeMillis();
+        startReadingTime = System.nanoTime();
         received = false;
     }
     
     public final boolean isValidRead() throws TimeoutException{
         if (received){
             return true;
-        } else if (System.currentTimeMillis() - startReadingTime >= TIMEOUT ){
+        } else if (System.nanoTime() - startReadingTime >= TIMEOUT * 1000000L){
             throw new TimeoutException();
         } else {
             return false;
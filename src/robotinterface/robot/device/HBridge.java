@@ -15,6 +15,9 @@ import robotinterface.robot.Robot;
 public class HBridge extends Device {
 
     private byte[] msg;
+    //velocidades comandadas: motor 0 (roda direita) e motor 1 (roda esquerda)
+    private final byte[] state = new byte[2];
+    private Robot robot = null;
 
     public HBridge(int id) {
         msg = new byte[5];
@@ -24,7 +27,32 @@ public class HBridge extends Device {
     public void setState(ByteBuffer data) {
     }
 
+    /**
+     * Define o robô cuja cinemática recebe as velocidades comandadas.
+     */
+    public void setRobot(Robot robot) {
+        this.robot = robot;
+        update();
+    }
+
+    /**
+     * Obtem a última velocidade comandada de um motor.
+     */
+    public byte getMotorState(int motor) {
+        return state[motor];
+    }
+
+    private void update() {
+        if (robot != null) {
+            robot.setWheelTargets(state[1] * Robot.SPEED_SCALE, state[0] * Robot.SPEED_SCALE);
+        }
+    }
+
     public void setMotorState(int motor, byte speed) {
+        if (motor == 0 || motor == 1) {
+            state[motor] = speed;
+            update();
+        }
         msg[0] = Robot.CMD_SET; //comando get
         msg[1] = getID(); //id
         msg[2] = 2; //tamanho da mensagem (2 bytes)
@@ -34,6 +62,9 @@ public class HBridge extends Device {
     }
 
     public void setFullState(byte speedM1, byte speedM2) {
+        state[0] = speedM1;
+        state[1] = speedM2;
+        update();
         msg[0] = Robot.CMD_SET; //comando get
         msg[1] = getID(); //id
         msg[2] = 2; //tamanho da mensagem (2 bytes)
@@ -12,7 +12,7 @@ import java.nio.ByteBuffer;
  */
 public class IRProximitySensor extends Device {
 
-    int dist = 0;
+    volatile int dist = 0;
     
     @Override
     public void setState(ByteBuffer data) {
@@ -33,4 +33,11 @@ public class IRProximitySensor extends Device {
     public int getDist(){
         return dist;
     }
+
+    /**
+     * Define a distância sem passar pela conexão (simulação).
+     */
+    public void setDist(int dist){
+        this.dist = dist;
+    }
 }
@@ -23,15 +23,32 @@
  * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
  *
  */
-package robotinterface.interpreter;
+package robotinterface.robot.simulation;
 
-import org.nfunk.jep.JEP;
+import robotinterface.robot.Robot;
+import robotinterface.robot.device.Compass;
 
 /**
- * Classe interpretável ({@link Command}) com suporte à variáveis (usada por
- * {@link Procedure}).
+ * Bússola simulada: o ângulo (0 a 359 graus) é derivado da orientação do
+ * robô.
  */
-public interface Expression {
+public class SimulatedCompass extends SimulatedSensor<Compass> {
 
-    public void setParser(JEP parser);
+    public SimulatedCompass(Robot robot, Compass device, double rate) {
+        super(robot, device, rate);
+    }
+
+    public SimulatedCompass(Robot robot, Compass device) {
+        this(robot, device, 20);
+    }
+
+    @Override
+    protected void sample(World world) {
+        double deg = noise(Math.toDegrees(robot.getTheta()));
+        int alpha = (int) Math.round(deg) % 360;
+        if (alpha < 0) {
+            alpha += 360;
+        }
+        device.setAlpha(alpha);
+    }
 }
@@ -0,0 +1,88 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.robot.simulation;
+
+import robotinterface.robot.Robot;
+import robotinterface.robot.device.IRProximitySensor;
+
+/**
+ * Sensor infravermelho simulado: lança um raio a partir da borda do robô
+ * contra os obstáculos do {@link World} e informa a distância em cm.
+ *
+ * Além do ruído gaussiano, uma leitura pode falhar com probabilidade
+ * {@link #setDropout(double)}, retornando o alcance máximo.
+ */
+public class SimulatedIRSensor extends SimulatedSensor<IRProximitySensor> {
+
+    //pixels por cm no desenho
+    private static final double SCALE = Robot.size / Robot.SIZE_CM;
+    private double angle = 0;
+    private double range = 80;
+    private double dropout = 0;
+
+    /**
+     * @param angle direção do sensor em relação à frente do robô (radianos)
+     */
+    public SimulatedIRSensor(Robot robot, IRProximitySensor device, double rate, double angle) {
+        super(robot, device, rate);
+        this.angle = angle;
+    }
+
+    public SimulatedIRSensor(Robot robot, IRProximitySensor device) {
+        this(robot, device, 20, 0);
+    }
+
+    /**
+     * Define o alcance máximo em cm.
+     */
+    public void setRange(double range) {
+        this.range = range;
+    }
+
+    public double getRange() {
+        return range;
+    }
+
+    public void setDropout(double probability) {
+        dropout = probability;
+    }
+
+    @Override
+    protected void sample(World world) {
+        double dist = range;
+        if (world != null && !(dropout > 0 && getRandom().nextDouble() < dropout)) {
+            double a = robot.getTheta() + angle;
+            double r = Robot.size / 2;
+            double x = robot.getX() + r * Math.cos(a);
+            double y = robot.getY() + r * Math.sin(a);
+            double d = world.raycast(x, y, a, range * SCALE) / SCALE;
+            if (d < range) {
+                dist = noise(d);
+            }
+        }
+        device.setDist((int) Math.round(Math.max(0, Math.min(range, dist))));
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.robot.simulation;
+
+import java.util.Random;
+import robotinterface.robot.Robot;
+import robotinterface.robot.device.Device;
+
+/**
+ * Back-end simulado de um dispositivo: amostra o estado do robô simulado
+ * (e do {@link World}) a uma frequência fixa, com ruído gaussiano e viés, e
+ * atualiza o dispositivo como se o valor tivesse vindo do hardware.
+ *
+ * É atualizado pela thread do {@link robotinterface.robot.Simulator}.
+ */
+public abstract class SimulatedSensor<T extends Device> {
+
+    protected final Robot robot;
+    protected final T device;
+    private double period;
+    private double next = 0;
+    private double sigma = 0;
+    private double bias = 0;
+    private Random random = new Random();
+
+    /**
+     * @param robot robô simulado
+     * @param device dispositivo do robô que receberá os valores
+     * @param rate frequência de amostragem (Hz)
+     */
+    public SimulatedSensor(Robot robot, T device, double rate) {
+        this.robot = robot;
+        this.device = device;
+        setRate(rate);
+    }
+
+    public Robot getRobot() {
+        return robot;
+    }
+
+    public T getDevice() {
+        return device;
+    }
+
+    public final void setRate(double rate) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate <= 0");
+        }
+        period = 1 / rate;
+    }
+
+    public double getRate() {
+        return 1 / period;
+    }
+
+    /**
+     * Define o modelo de ruído: valor + viés + N(0, sigma²).
+     */
+    public void setNoise(double sigma, double bias) {
+        this.sigma = sigma;
+        this.bias = bias;
+    }
+
+    public void setSeed(long seed) {
+        random = new Random(seed);
+    }
+
+    protected final double noise(double value) {
+        if (sigma > 0) {
+            value += random.nextGaussian() * sigma;
+        }
+        return value + bias;
+    }
+
+    protected final Random getRandom() {
+        return random;
+    }
+
+    /**
+     * Amostra o sensor se o período já passou e notifica os observadores do
+     * robô, como em uma resposta do hardware.
+     *
+     * @param time tempo simulado em segundos
+     * @param world ambiente (pode ser nulo)
+     */
+    public final void update(double time, World world) {
+        if (time >= next) {
+            sample(world);
+            robot.updateObservers(device);
+            next += period;
+            if (next <= time) {
+                next = time + period;
+            }
+        }
+    }
+
+    /**
+     * Lê o estado simulado e atualiza o dispositivo.
+     */
+    protected abstract void sample(World world);
+}
@@ -0,0 +1,525 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.robot.simulation;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Obstáculos do ambiente simulado (segmentos e círculos), indexados por uma
+ * grade uniforme para consultas de raio, de obstáculo mais próximo e de
+ * colisão.
+ *
+ * As coordenadas são as mesmas do desenho (pixels). Cada obstáculo
+ * adicionado recebe um identificador que pode ser usado para removê-lo.
+ */
+public class World {
+
+    /**
+     * Células da grade: identificadores dos obstáculos cuja caixa
+     * envolvente toca a célula. Segmentos têm identificador >= 0 e círculos
+     * ~índice.
+     */
+    private static class Cell {
+
+        int[] items = new int[4];
+        int size = 0;
+
+        void add(int item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = item;
+        }
+
+        void remove(int item) {
+            for (int i = 0; i < size; i++) {
+                if (items[i] == item) {
+                    items[i] = items[--size];
+                    return;
+                }
+            }
+        }
+    }
+    private final double cellSize;
+    private final HashMap<Long, Cell> grid = new HashMap<>();
+    //segmentos: x1, y1, x2, y2 (NaN quando livre)
+    private double[] segments = new double[64];
+    private int segmentCount = 0;
+    private int[] freeSegments = new int[16];
+    private int freeSegmentCount = 0;
+    //círculos: x, y, raio (NaN quando livre)
+    private double[] circles = new double[48];
+    private int circleCount = 0;
+    private int[] freeCircles = new int[16];
+    private int freeCircleCount = 0;
+    //marcação de obstáculos já testados na consulta atual
+    private int[] segmentMark = new int[16];
+    private int[] circleMark = new int[16];
+    private int query = 0;
+    //resultado da última medida de distância (ponto mais próximo)
+    private double closestX, closestY;
+
+    public World(double cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("cellSize <= 0");
+        }
+        this.cellSize = cellSize;
+    }
+
+    public World() {
+        this(50);
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private int cell(double v) {
+        return (int) Math.floor(v / cellSize);
+    }
+
+    private void index(int item, double x1, double y1, double x2, double y2, boolean add) {
+        int cx1 = cell(Math.min(x1, x2)), cx2 = cell(Math.max(x1, x2));
+        int cy1 = cell(Math.min(y1, y2)), cy2 = cell(Math.max(y1, y2));
+        for (int cx = cx1; cx <= cx2; cx++) {
+            for (int cy = cy1; cy <= cy2; cy++) {
+                Long k = key(cx, cy);
+                Cell c = grid.get(k);
+                if (add) {
+                    if (c == null) {
+                        c = new Cell();
+                        grid.put(k, c);
+                    }
+                    c.add(item);
+                } else if (c != null) {
+                    c.remove(item);
+                    if (c.size == 0) {
+                        grid.remove(k);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adiciona uma parede (segmento de reta).
+     *
+     * @return identificador do obstáculo
+     */
+    public synchronized int addSegment(double x1, double y1, double x2, double y2) {
+        int i;
+        if (freeSegmentCount > 0) {
+            i = freeSegments[--freeSegmentCount];
+        } else {
+            i = segmentCount++;
+            if (i * 4 == segments.length) {
+                segments = Arrays.copyOf(segments, segments.length * 2);
+            }
+            if (i == segmentMark.length) {
+                segmentMark = Arrays.copyOf(segmentMark, i * 2);
+            }
+        }
+        segments[i * 4] = x1;
+        segments[i * 4 + 1] = y1;
+        segments[i * 4 + 2] = x2;
+        segments[i * 4 + 3] = y2;
+        index(i, x1, y1, x2, y2, true);
+        return i;
+    }
+
+    /**
+     * Adiciona um obstáculo circular.
+     *
+     * @return identificador do obstáculo
+     */
+    public synchronized int addCircle(double x, double y, double radius) {
+        int i;
+        if (freeCircleCount > 0) {
+            i = freeCircles[--freeCircleCount];
+        } else {
+            i = circleCount++;
+            if (i * 3 == circles.length) {
+                circles = Arrays.copyOf(circles, circles.length * 2);
+            }
+            if (i == circleMark.length) {
+                circleMark = Arrays.copyOf(circleMark, i * 2);
+            }
+        }
+        circles[i * 3] = x;
+        circles[i * 3 + 1] = y;
+        circles[i * 3 + 2] = radius;
+        index(~i, x - radius, y - radius, x + radius, y + radius, true);
+        return ~i;
+    }
+
+    /**
+     * Adiciona as quatro paredes de um retângulo.
+     */
+    public void addRectangle(double x, double y, double width, double height) {
+        addSegment(x, y, x + width, y);
+        addSegment(x + width, y, x + width, y + height);
+        addSegment(x + width, y + height, x, y + height);
+        addSegment(x, y + height, x, y);
+    }
+
+    /**
+     * Remove um obstáculo pelo identificador devolvido ao adicioná-lo.
+     */
+    public synchronized void remove(int id) {
+        if (id >= 0) {
+            int o = id * 4;
+            if (id >= segmentCount || Double.isNaN(segments[o])) {
+                return;
+            }
+            index(id, segments[o], segments[o + 1], segments[o + 2], segments[o + 3], false);
+            segments[o] = Double.NaN;
+            if (freeSegmentCount == freeSegments.length) {
+                freeSegments = Arrays.copyOf(freeSegments, freeSegmentCount * 2);
+            }
+            freeSegments[freeSegmentCount++] = id;
+        } else {
+            int i = ~id;
+            int o = i * 3;
+            if (i >= circleCount || Double.isNaN(circles[o])) {
+                return;
+            }
+            double r = circles[o + 2];
+            index(id, circles[o] - r, circles[o + 1] - r, circles[o] + r, circles[o + 1] + r, false);
+            circles[o] = Double.NaN;
+            if (freeCircleCount == freeCircles.length) {
+                freeCircles = Arrays.copyOf(freeCircles, freeCircleCount * 2);
+            }
+            freeCircles[freeCircleCount++] = i;
+        }
+    }
+
+    public synchronized void clear() {
+        grid.clear();
+        segmentCount = 0;
+        circleCount = 0;
+        freeSegmentCount = 0;
+        freeCircleCount = 0;
+    }
+
+    /**
+     * Número de obstáculos no ambiente.
+     */
+    public synchronized int size() {
+        return segmentCount - freeSegmentCount + circleCount - freeCircleCount;
+    }
+
+    private void beginQuery() {
+        query++;
+        if (query == 0) {
+            Arrays.fill(segmentMark, 0);
+            Arrays.fill(circleMark, 0);
+            query = 1;
+        }
+    }
+
+    /**
+     * Marca o obstáculo como visitado na consulta atual.
+     *
+     * @return falso se ele já havia sido visitado
+     */
+    private boolean visit(int item) {
+        if (item >= 0) {
+            if (segmentMark[item] == query) {
+                return false;
+            }
+            segmentMark[item] = query;
+        } else {
+            if (circleMark[~item] == query) {
+                return false;
+            }
+            circleMark[~item] = query;
+        }
+        return true;
+    }
+
+    /**
+     * Obtem a distância até o primeiro obstáculo na direção dada.
+     *
+     * @param x origem
+     * @param y origem
+     * @param angle direção em radianos
+     * @param maxDist alcance máximo (finito)
+     * @return distância até o obstáculo, ou {@link Double#POSITIVE_INFINITY}
+     * se nada for atingido dentro do alcance
+     */
+    public synchronized double raycast(double x, double y, double angle, double maxDist) {
+        if (Double.isInfinite(maxDist) || Double.isNaN(maxDist)) {
+            throw new IllegalArgumentException("alcance inválido: " + maxDist);
+        }
+        double dx = Math.cos(angle);
+        double dy = Math.sin(angle);
+        beginQuery();
+        //percorre as células atravessadas pelo raio (Amanatides & Woo)
+        int cx = cell(x), cy = cell(y);
+        int stepX = (dx > 0) ? 1 : -1;
+        int stepY = (dy > 0) ? 1 : -1;
+        double nextX = (dx > 0) ? (cx + 1) * cellSize : cx * cellSize;
+        double nextY = (dy > 0) ? (cy + 1) * cellSize : cy * cellSize;
+        double tMaxX = (dx != 0) ? (nextX - x) / dx : Double.POSITIVE_INFINITY;
+        double tMaxY = (dy != 0) ? (nextY - y) / dy : Double.POSITIVE_INFINITY;
+        double tDeltaX = (dx != 0) ? cellSize / Math.abs(dx) : Double.POSITIVE_INFINITY;
+        double tDeltaY = (dy != 0) ? cellSize / Math.abs(dy) : Double.POSITIVE_INFINITY;
+        double best = Double.POSITIVE_INFINITY;
+        double t = 0;
+        while (t <= maxDist) {
+            Cell c = grid.get(key(cx, cy));
+            if (c != null) {
+                for (int k = 0; k < c.size; k++) {
+                    int item = c.items[k];
+                    if (visit(item)) {
+                        double d = intersect(item, x, y, dx, dy);
+                        if (d < best) {
+                            best = d;
+                        }
+                    }
+                }
+            }
+            double exit = Math.min(tMaxX, tMaxY);
+            if (best <= exit) {
+                break;
+            }
+            t = exit;
+            if (tMaxX < tMaxY) {
+                tMaxX += tDeltaX;
+                cx += stepX;
+            } else {
+                tMaxY += tDeltaY;
+                cy += stepY;
+            }
+        }
+        return (best <= maxDist) ? best : Double.POSITIVE_INFINITY;
+    }
+
+    private double intersect(int item, double x, double y, double dx, double dy) {
+        if (item >= 0) {
+            int o = item * 4;
+            double ex = segments[o + 2] - segments[o];
+            double ey = segments[o + 3] - segments[o + 1];
+            double den = dx * ey - dy * ex;
+            if (den == 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double wx = segments[o] - x;
+            double wy = segments[o + 1] - y;
+            double t = (wx * ey - wy * ex) / den;
+            double u = (wx * dy - wy * dx) / den;
+            return (t >= 0 && u >= 0 && u <= 1) ? t : Double.POSITIVE_INFINITY;
+        } else {
+            int o = ~item * 3;
+            double wx = x - circles[o];
+            double wy = y - circles[o + 1];
+            double r = circles[o + 2];
+            double b = wx * dx + wy * dy;
+            double c = wx * wx + wy * wy - r * r;
+            if (c <= 0) {
+                return 0; //origem dentro do obstáculo
+            }
+            double disc = b * b - c;
+            if (disc < 0 || b > 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return -b - Math.sqrt(disc);
+        }
+    }
+
+    /**
+     * Distância do ponto até a superfície do obstáculo (0 se dentro); o
+     * ponto mais próximo fica em closestX/closestY.
+     */
+    private double distance(int item, double x, double y) {
+        if (item >= 0) {
+            int o = item * 4;
+            double x1 = segments[o], y1 = segments[o + 1];
+            double ex = segments[o + 2] - x1;
+            double ey = segments[o + 3] - y1;
+            double len = ex * ex + ey * ey;
+            double u = (len > 0) ? ((x - x1) * ex + (y - y1) * ey) / len : 0;
+            u = (u < 0) ? 0 : (u > 1) ? 1 : u;
+            closestX = x1 + u * ex;
+            closestY = y1 + u * ey;
+            return Math.hypot(x - closestX, y - closestY);
+        } else {
+            int o = ~item * 3;
+            double wx = x - circles[o];
+            double wy = y - circles[o + 1];
+            double r = circles[o + 2];
+            double d = Math.hypot(wx, wy);
+            if (d <= r) {
+                closestX = x;
+                closestY = y;
+                return 0;
+            }
+            closestX = circles[o] + wx / d * r;
+            closestY = circles[o + 1] + wy / d * r;
+            return d - r;
+        }
+    }
+
+    /**
+     * Procura o obstáculo mais próximo de um ponto, percorrendo anéis de
+     * células a partir da célula do ponto.
+     *
+     * @param maxDist distância máxima de busca (finita)
+     * @param out se não for nulo, recebe o ponto mais próximo {x, y}
+     * @return distância até a superfície do obstáculo, ou
+     * {@link Double#POSITIVE_INFINITY} se nenhum estiver dentro do limite
+     */
+    public synchronized double nearest(double x, double y, double maxDist, double[] out) {
+        if (Double.isInfinite(maxDist) || Double.isNaN(maxDist)) {
+            throw new IllegalArgumentException("distância inválida: " + maxDist);
+        }
+        beginQuery();
+        int cx = cell(x), cy = cell(y);
+        int rings = (int) Math.ceil(maxDist / cellSize) + 1;
+        double best = Double.POSITIVE_INFINITY;
+        double bx = 0, by = 0;
+        for (int k = 0; k <= rings; k++) {
+            //nenhuma célula do anel k está a menos de (k - 1) células
+            if ((k - 1) * cellSize > Math.min(best, maxDist)) {
+                break;
+            }
+            for (int i = -k; i <= k; i++) {
+                for (int j = -k; j <= k; j++) {
+                    if (Math.abs(i) != k && Math.abs(j) != k) {
+                        continue; //interior já visitado
+                    }
+                    Cell c = grid.get(key(cx + i, cy + j));
+                    if (c == null) {
+                        continue;
+                    }
+                    for (int n = 0; n < c.size; n++) {
+                        int item = c.items[n];
+                        if (visit(item)) {
+                            double d = distance(item, x, y);
+                            if (d < best) {
+                                best = d;
+                                bx = closestX;
+                                by = closestY;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (best > maxDist) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (out != null) {
+            out[0] = bx;
+            out[1] = by;
+        }
+        return best;
+    }
+
+    /**
+     * Afasta um círculo (robô) dos obstáculos que ele está tocando,
+     * projetando-o para fora de cada um.
+     *
+     * @param pos posição {x, y} do centro, atualizada no lugar
+     * @param radius raio do círculo
+     * @return número de obstáculos em contato
+     */
+    public synchronized int resolve(double[] pos, double radius) {
+        beginQuery();
+        int contacts = 0;
+        int cx1 = cell(pos[0] - radius), cx2 = cell(pos[0] + radius);
+        int cy1 = cell(pos[1] - radius), cy2 = cell(pos[1] + radius);
+        for (int cx = cx1; cx <= cx2; cx++) {
+            for (int cy = cy1; cy <= cy2; cy++) {
+                Cell c = grid.get(key(cx, cy));
+                if (c == null) {
+                    continue;
+                }
+                for (int n = 0; n < c.size; n++) {
+                    int item = c.items[n];
+                    if (!visit(item)) {
+                        continue;
+                    }
+                    double d = distance(item, pos[0], pos[1]);
+                    if (d < radius) {
+                        contacts++;
+                        double nx = pos[0] - closestX;
+                        double ny = pos[1] - closestY;
+                        if (d > 1e-9) {
+                            pos[0] += nx / d * (radius - d);
+                            pos[1] += ny / d * (radius - d);
+                        } else if (item < 0) {
+                            //centro dentro de um círculo: sai pela direção do centro dele
+                            int o = ~item * 3;
+                            double wx = pos[0] - circles[o];
+                            double wy = pos[1] - circles[o + 1];
+                            double w = Math.hypot(wx, wy);
+                            double push = circles[o + 2] + radius - w;
+                            if (w > 1e-9) {
+                                pos[0] += wx / w * push;
+                                pos[1] += wy / w * push;
+                            } else {
+                                pos[0] += push;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return contacts;
+    }
+
+    /**
+     * Desenha os obstáculos.
+     */
+    public synchronized void draw(Graphics2D g) {
+        Line2D.Double line = new Line2D.Double();
+        Ellipse2D.Double oval = new Ellipse2D.Double();
+        for (int i = 0; i < segmentCount; i++) {
+            int o = i * 4;
+            if (!Double.isNaN(segments[o])) {
+                line.setLine(segments[o], segments[o + 1], segments[o + 2], segments[o + 3]);
+                g.draw(line);
+            }
+        }
+        for (int i = 0; i < circleCount; i++) {
+            int o = i * 3;
+            if (!Double.isNaN(circles[o])) {
+                double r = circles[o + 2];
+                oval.setFrame(circles[o] - r, circles[o + 1] - r, 2 * r, 2 * r);
+                g.fill(oval);
+            }
+        }
+    }
+}
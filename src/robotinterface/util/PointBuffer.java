@@ -0,0 +1,122 @@
+/**
+ * @file .java
+ * @author Anderson Antunes <anderson.utf@gmail.com>
+ *         *seu nome* <*seu email*>
+ * @version 1.0
+ *
+ * @section LICENSE
+ *
+ * Copyright (C) 2013 by Anderson Antunes <anderson.utf@gmail.com>
+ *                       *seu nome* <*seu email*>
+ *
+ * RobotInterface is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * RobotInterface is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * RobotInterface. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package robotinterface.util;
+
+/**
+ * Buffer circular de pontos inteiros (x, y e uma marca opcional) com
+ * capacidade fixa, para um único escritor.
+ *
+ * Os leitores não usam travas: {@link #snapshot(int[], int[])} copia os
+ * pontos e descarta os que o escritor pode ter sobrescrito durante a
+ * cópia.
+ */
+public class PointBuffer {
+
+    private final int capacity;
+    private final int[] xs, ys, tags;
+    //total de pontos já escritos; publicado após cada escrita
+    private volatile long written = 0;
+
+    public PointBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity <= 0");
+        }
+        this.capacity = capacity;
+        xs = new int[capacity];
+        ys = new int[capacity];
+        tags = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return (int) Math.min(written, capacity);
+    }
+
+    public boolean isFull() {
+        return written >= capacity;
+    }
+
+    /**
+     * Adiciona um ponto, sobrescrevendo o mais antigo se estiver cheio.
+     * Apenas uma thread pode escrever.
+     */
+    public void add(int x, int y, int tag) {
+        long w = written;
+        int i = (int) (w % capacity);
+        xs[i] = x;
+        ys[i] = y;
+        tags[i] = tag;
+        written = w + 1;
+    }
+
+    public void add(int x, int y) {
+        add(x, y, 0);
+    }
+
+    /**
+     * Obtem a marca do ponto mais antigo (o próximo a ser sobrescrito).
+     * Apenas para o escritor.
+     */
+    public int getOldestTag() {
+        long w = written;
+        return tags[(int) ((w < capacity) ? 0 : w % capacity)];
+    }
+
+    public void clear() {
+        written = 0;
+    }
+
+    /**
+     * Copia os pontos, do mais antigo ao mais recente.
+     *
+     * @param x destino das coordenadas x (tamanho >= capacidade)
+     * @param y destino das coordenadas y (tamanho >= capacidade)
+     * @return número de pontos copiados
+     */
+    public int snapshot(int[] x, int[] y) {
+        long end = written;
+        long start = Math.max(0, end - capacity);
+        int n = (int) (end - start);
+        int from = (int) (start % capacity);
+        int first = Math.min(n, capacity - from);
+        System.arraycopy(xs, from, x, 0, first);
+        System.arraycopy(ys, from, y, 0, first);
+        System.arraycopy(xs, 0, x, first, n - first);
+        System.arraycopy(ys, 0, y, first, n - first);
+        //o escritor pode estar sobrescrevendo o índice (written - capacity)
+        long valid = written - capacity + 1;
+        if (valid > start) {
+            int drop = (int) Math.min(n, valid - start);
+            n -= drop;
+            System.arraycopy(x, drop, x, 0, n);
+            System.arraycopy(y, drop, y, 0, n);
+        }
+        return n;
+    }
+}
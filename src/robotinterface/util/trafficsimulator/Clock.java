@@ -22,36 +22,39 @@
 package robotinterface.util.trafficsimulator;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Classe responsavel por gerenciar o tempo da simulação e eventos.
  */
 public class Clock extends Thread {
 
-    private int d;
-    private int h;
-    private int m;
-    private int s;
-    private int ms;
-    private long lastMs;
-    private long dt;
+    //horário inicial (ms)
+    private final long start;
+    //tempo real (System.nanoTime) do último avanço
+    private long lastNanos;
+    //duração do último avanço em ms de tempo real
+    private double dt;
+    //tempo simulado decorrido em ms (com a razão do relógio)
+    private double time;
     private boolean paused = true;
     private double ratio;
-    private long ems;
-    private final ArrayList<Timer> timers;
+    //timers ordenados pelo próximo disparo (heap binário), alterado somente
+    //pela thread que avança o relógio; as outras threads usam a fila
+    private Timer[] timers = new Timer[16];
+    private int timerCount = 0;
+    private long timerSeq = 0;
+    private final ConcurrentLinkedQueue<Timer> pending = new ConcurrentLinkedQueue<>();
+    //tempo dos timers: tempo simulado em ms inteiros
+    private volatile long timerTime = 0;
     private final ArrayList<ClockListener> listeners;
     private int sleep;
+    private boolean virtualTime = false;
 
     public Clock(int d, int h, int m, int s, int ms, double ratio) {
-        this.d = d;
-        this.h = h;
-        this.m = m;
-        this.s = s;
-        this.ms = ms;
+        start = (((d * 24L + h) * 60 + m) * 60 + s) * 1000 + ms;
         this.ratio = ratio;
-        ems = 0;
-        timers = new ArrayList<>();
         listeners = new ArrayList<>();
         sleep = 100;
     }
@@ -61,35 +64,56 @@ public class Clock extends Thread {
     }
 
     public void increase() {
+        if (!paused && !virtualTime) {
+            long now = System.nanoTime();
+            advance((now - lastNanos) / 1e6);
+            lastNanos = now;
+        }
+    }
+
+    /**
+     * Avança o relógio um intervalo de tempo fixo, independente do tempo
+     * real.
+     *
+     * @param milis intervalo em milisegundos (tempo real, multiplicado pela
+     * razão do relógio)
+     */
+    public void increase(double milis) {
         if (!paused) {
-            dt = System.currentTimeMillis() - lastMs;
-            lastMs = System.currentTimeMillis();
-            ms += (long) (dt * ratio);
-            ems += (long) (dt * ratio);
-
-            synchronized (timers) {
-                for (Iterator<Timer> it = timers.iterator(); it.hasNext();) {
-                    if (it.next().increase(dt)) {
-                        it.remove();
-                    }
-                }
-            }
+            advance(milis);
+        }
+    }
 
-            if (ms >= 1000) {
-                s += ms / 1000;
-                ms = ms % 1000;
-                if (s >= 60) {
-                    m += s / 60;
-                    s = s % 60;
-                    if (m >= 60) {
-                        h += m / 60;
-                        m = m % 60;
-                        if (h >= 24) {
-                            d += h / 24;
-                            h = h % 24;
-                        }
-                    }
-                }
+    /**
+     * Avança o relógio diretamente até o próximo timer expirar.
+     *
+     * @return false se não existe nenhum timer esperando
+     */
+    public boolean advanceToNextDeadline() {
+        drainPending();
+        if (timerCount == 0 || paused) {
+            return false;
+        }
+        advance((timers[0].deadline - time) / ratio);
+        return true;
+    }
+
+    private void advance(double milis) {
+        dt = milis;
+        time += milis * ratio;
+
+        drainPending();
+        //tolerância para o arredondamento de advanceToNextDeadline
+        long now = (long) Math.floor(time + 1e-6);
+        timerTime = now;
+        while (timerCount > 0 && timers[0].deadline <= now) {
+            Timer t = timers[0];
+            if (t.expire(now) && t.schedule(now)) {
+                t.seq = timerSeq++;
+                siftDown(0);
+            } else {
+                removeAt(0);
+                t.active = !t.isConsumed() && t.active;
             }
         }
     }
@@ -111,24 +135,63 @@ public class Clock extends Thread {
         }
     }
 
+    /**
+     * Zera o tempo do relógio. Os timers esperando continuam com o tempo que
+     * faltava para o próximo disparo.
+     */
     public void reset() {
+        drainPending();
+        long old = timerTime;
+        for (int i = 0; i < timerCount; i++) {
+            Timer t = timers[i];
+            synchronized (t) {
+                t.base -= old;
+                t.deadline -= old;
+            }
+        }
+        timerTime = 0;
         paused = false;
-        lastMs = System.currentTimeMillis();
-        d = h = m = s = ms = 0;
-        ems = 0;
+        lastNanos = System.nanoTime();
+        dt = 0;
+        time = 0;
     }
 
     public void pause(boolean p) {
-        paused = p;
-        lastMs = System.currentTimeMillis();
+        setPaused(p);
     }
 
+    /**
+     * Obtem a duração do último avanço em segundos de tempo simulado.
+     */
     public double getDt() {
         return (paused) ? 0 : dt * ratio / 1000.0;
     }
 
     public long getElapsedMilis() {
-        return ems;
+        return (long) time;
+    }
+
+    /**
+     * Obtem o tempo simulado decorrido em milisegundos, com a precisão do
+     * relógio (sub-milisegundo).
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * Define se o relógio segue o tempo real ou um tempo virtual, que só
+     * avança com {@link #increase(double)} e {@link #advanceToNextDeadline()}.
+     * Com tempo virtual uma simulação longa é executada o mais rápido
+     * possível e sempre com o mesmo resultado.
+     */
+    public void setVirtualTime(boolean virtualTime) {
+        this.virtualTime = virtualTime;
+        lastNanos = System.nanoTime();
+    }
+
+    public boolean isVirtualTime() {
+        return virtualTime;
     }
 
     public boolean isPaused() {
@@ -137,13 +200,9 @@ public class Clock extends Thread {
 
     public void setPaused(boolean paused) {
         this.paused = paused;
-        if (paused) {
-            dt = 0;
-            lastMs = 0;
-        } else {
-            dt = 1;
-            lastMs = System.currentTimeMillis();
-        }
+        //o tempo pausado não é contado no próximo avanço
+        dt = 0;
+        lastNanos = System.nanoTime();
     }
 
     public double getRatio() {
@@ -151,6 +210,9 @@ public class Clock extends Thread {
     }
 
     public void setRatio(double ratio) {
+        if (ratio <= 0) {
+            throw new IllegalArgumentException("ratio <= 0");
+        }
         this.ratio = ratio;
     }
 
@@ -167,23 +229,125 @@ public class Clock extends Thread {
         }
     }
 
+    /**
+     * Adiciona um timer, que passa a contar a partir do tempo atual. Pode ser
+     * chamado de qualquer thread; o timer entra na fila no próximo avanço do
+     * relógio.
+     */
     public void addTimer(Timer t) {
-        synchronized (timers) {
-            if (!timers.contains(t)){
-                timers.add(t);
+        synchronized (t) {
+            if (t.owner == this && t.active) {
+                return;
             }
+            t.owner = this;
+            t.base = timerTime;
+            t.active = true;
         }
+        pending.offer(t);
     }
 
     public void removeTimer(Timer t) {
-        synchronized (timers) {
-            timers.remove(t);
+        if (t.owner == this) {
+            t.active = false;
+            pending.offer(t);
+        }
+    }
+
+    long getTimerTime() {
+        return timerTime;
+    }
+
+    //o timer mudou de estado (reset, pausa)
+    void reschedule(Timer t) {
+        pending.offer(t);
+    }
+
+    //aplica as adições, remoções e alterações de timers
+    private void drainPending() {
+        Timer t;
+        while ((t = pending.poll()) != null) {
+            if (t.heapIndex >= 0) {
+                removeAt(t.heapIndex);
+            }
+            if (t.owner == this && t.active && t.schedule(timerTime)) {
+                t.seq = timerSeq++;
+                insert(t);
+            }
+        }
+    }
+
+    private boolean before(Timer a, Timer b) {
+        return a.deadline < b.deadline || (a.deadline == b.deadline && a.seq < b.seq);
+    }
+
+    private void insert(Timer t) {
+        if (timerCount == timers.length) {
+            timers = Arrays.copyOf(timers, timerCount * 2);
+        }
+        timers[timerCount] = t;
+        t.heapIndex = timerCount;
+        timerCount++;
+        siftUp(t.heapIndex);
+    }
+
+    private void removeAt(int i) {
+        Timer t = timers[i];
+        t.heapIndex = -1;
+        timerCount--;
+        if (i != timerCount) {
+            Timer last = timers[timerCount];
+            timers[i] = last;
+            last.heapIndex = i;
+            siftDown(i);
+            siftUp(last.heapIndex);
+        }
+        timers[timerCount] = null;
+    }
+
+    private void siftUp(int i) {
+        Timer t = timers[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            Timer p = timers[parent];
+            if (!before(t, p)) {
+                break;
+            }
+            timers[i] = p;
+            p.heapIndex = i;
+            i = parent;
+        }
+        timers[i] = t;
+        t.heapIndex = i;
+    }
+
+    private void siftDown(int i) {
+        Timer t = timers[i];
+        int half = timerCount >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            Timer c = timers[child];
+            int right = child + 1;
+            if (right < timerCount && before(timers[right], c)) {
+                child = right;
+                c = timers[child];
+            }
+            if (!before(c, t)) {
+                break;
+            }
+            timers[i] = c;
+            c.heapIndex = i;
+            i = child;
         }
+        timers[i] = t;
+        t.heapIndex = i;
     }
 
     @Override
     public String toString() {
-        String str = "Clock{" + "d=" + d + ", h=" + h + ", m=" + m + ", s=" + s + ", ms=" + ms + ", dt=" + dt + " frames: " + (int) (1000.0f / dt) + ", paused=" + paused + ", ratio=" + ratio + '}';
+        long t = start + (long) time;
+        String str = "Clock{" + "d=" + t / 86400000 + ", h=" + t / 3600000 % 24 + ", m=" + t / 60000 % 60
+                + ", s=" + t / 1000 % 60 + ", ms=" + t % 1000 + ", dt=" + dt + " frames: " + (int) (1000.0 / dt)
+                + ", paused=" + paused + ", ratio=" + ratio + '}';
         return str;
     }
 
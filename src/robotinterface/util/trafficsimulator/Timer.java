@@ -24,7 +24,11 @@ package robotinterface.util.trafficsimulator;
 /**
  * Cronometro de uso geral.
  *
- *
+ * Quando adicionado a um {@link Clock} o timer fica em uma fila de
+ * prioridade pelo instante do próximo disparo, e o tempo decorrido é
+ * calculado a partir do tempo do relógio. Alterações feitas com
+ * {@link #reset()}, {@link #pause(boolean)} e {@link #start()} são
+ * repassadas ao relógio.
  */
 public class Timer {
 
@@ -35,6 +39,13 @@ public class Timer {
     private boolean paused = false;
     private boolean consumed = false;
     private boolean disposable = true;
+    //estado mantido pelo relógio
+    volatile Clock owner;
+    volatile boolean active;
+    long base; //tempo do relógio em que timeElapsed foi atualizado
+    long deadline;
+    long seq;
+    int heapIndex = -1;
 
     public Timer(long milis) {
         if (milis <= 0) {
@@ -52,20 +63,32 @@ public class Timer {
         this.disposable = disposable;
     }
 
-    public synchronized void reset() {
-        consumed = false;
-        paused = false;
-        timeElapsed = 0;
-        lastCount = 0;
-        count = 0;
+    public void reset() {
+        synchronized (this) {
+            consumed = false;
+            paused = false;
+            timeElapsed = 0;
+            lastCount = 0;
+            count = 0;
+            base = now();
+        }
+        reschedule();
     }
 
     public void start() {
-        paused = false;
+        pause(false);
     }
 
     public void pause(boolean state) {
-        paused = state;
+        synchronized (this) {
+            if (state == paused) {
+                return;
+            }
+            timeElapsed = getTimeElapsed();
+            base = now();
+            paused = state;
+        }
+        reschedule();
     }
 
     public boolean isPaused() {
@@ -74,29 +97,95 @@ public class Timer {
 
     public void consume() {
         consumed = true;
+        reschedule();
     }
 
     public boolean isConsumed() {
         return consumed;
     }
 
+    private long now() {
+        Clock c = owner;
+        return (c != null) ? c.getTimerTime() : 0;
+    }
+
+    private void reschedule() {
+        Clock c = owner;
+        if (c != null && active) {
+            c.reschedule(this);
+        }
+    }
+
+    /**
+     * Avança o timer manualmente (somente para timers fora de um relógio).
+     *
+     * @return true se o timer foi consumido
+     */
     public synchronized boolean increase(long milis) {
         if (!paused) {
             timeElapsed += milis;
-            lastCount = count;
-            count = timeElapsed / tick;
-            if (lastCount != count) {
-                if (disposable){
-                    consumed = true;
-                }
-//                System.out.println(timeElapsed);
-                run();
-            }
+            update();
         }
         return consumed;
     }
 
+    //atualiza a contagem e dispara o timer se um período foi completado
+    private void update() {
+        lastCount = count;
+        count = timeElapsed / tick;
+        if (lastCount != count) {
+            if (disposable) {
+                consumed = true;
+            }
+//                System.out.println(timeElapsed);
+            run();
+        }
+    }
+
+    /**
+     * Chamado pelo relógio no instante do próximo disparo.
+     *
+     * @return true se o timer deve continuar na fila
+     */
+    synchronized boolean expire(long now) {
+        timeElapsed += now - base;
+        base = now;
+        update();
+        return !consumed && !paused;
+    }
+
+    /**
+     * Calcula o instante do próximo disparo no tempo do relógio.
+     *
+     * @return false se o timer não deve estar na fila
+     */
+    synchronized boolean schedule(long now) {
+        if (consumed || paused) {
+            return false;
+        }
+        deadline = base + tick - timeElapsed % tick;
+        if (deadline <= now) {
+            deadline = now + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Obtem o tempo que falta para o próximo disparo.
+     *
+     * @return o tempo em milisegundos, ou Long.MAX_VALUE se pausado
+     */
+    public synchronized long getTimeToNextTick() {
+        if (paused) {
+            return Long.MAX_VALUE;
+        }
+        return tick - getTimeElapsed() % tick;
+    }
+
     public synchronized long getTimeElapsed() {
+        if (heapIndex >= 0 && !paused) {
+            return timeElapsed + now() - base;
+        }
         return timeElapsed;
     }
 